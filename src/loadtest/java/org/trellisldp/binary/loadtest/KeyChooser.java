@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary.loadtest;
+
+import static java.util.Arrays.binarySearch;
+
+import java.util.SplittableRandom;
+
+/**
+ * Choose keys from a fixed keyspace following a Zipf distribution.
+ *
+ * <p>An exponent of zero yields a uniform distribution; larger exponents
+ * concentrate more of the traffic on a small set of hot keys.</p>
+ *
+ * @author acoburn
+ */
+class KeyChooser {
+
+    private final double[] cumulative;
+
+    /**
+     * Create a key chooser
+     * @param keys the size of the keyspace
+     * @param skew the Zipf exponent
+     */
+    public KeyChooser(final int keys, final double skew) {
+        if (keys < 1) {
+            throw new IllegalArgumentException("The keyspace must contain at least one key");
+        }
+        cumulative = new double[keys];
+        double total = 0.0;
+        for (int i = 0; i < keys; ++i) {
+            total += 1.0 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < keys; ++i) {
+            cumulative[i] /= total;
+        }
+    }
+
+    /**
+     * Choose the next key
+     * @param random the source of randomness
+     * @return the index of a key in the keyspace
+     */
+    public int next(final SplittableRandom random) {
+        final int idx = binarySearch(cumulative, random.nextDouble());
+        return Math.min(idx < 0 ? -idx - 1 : idx, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary.loadtest;
+
+import static java.lang.System.nanoTime;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.newInputStream;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static java.util.Locale.ROOT;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.RDF;
+import org.apache.commons.rdf.simple.SimpleRDF;
+import org.slf4j.Logger;
+import org.trellisldp.api.BinaryService;
+import org.trellisldp.binary.ChunkedFileResolver;
+import org.trellisldp.binary.DefaultBinaryService;
+import org.trellisldp.binary.FileResolver;
+import org.trellisldp.binary.IOPriority;
+import org.trellisldp.binary.IOScheduler;
+import org.trellisldp.binary.ScheduledResolver;
+
+/**
+ * A load-test harness for the binary service.
+ *
+ * <p>The harness drives a {@link DefaultBinaryService} with a configurable mix of read, write,
+ * exists, purge and digest operations, and reports the throughput and latency distribution of
+ * each operation. Binaries are stored by a {@link FileResolver} or a {@link ChunkedFileResolver}.
+ * When a scheduler concurrency is set, the resolver runs behind a {@link ScheduledResolver} and
+ * digest operations use the background priority class.</p>
+ *
+ * <p>The scenario is configured with {@code loadtest.*} properties, read from an optional
+ * properties file given as the first argument and overridden by system properties.</p>
+ *
+ * <p>Each worker thread draws its operations, keys and content from a generator split
+ * from the scenario seed, so a given configuration replays the same per-thread
+ * workload on every run.</p>
+ *
+ * @author acoburn
+ */
+public final class LoadTest implements AutoCloseable {
+
+    private static final String PARTITION = "loadtest";
+    private static final String PREFIX = "loadtest.";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    private static final Logger LOGGER = getLogger(LoadTest.class);
+
+    private static final RDF rdf = new SimpleRDF();
+
+    private final LoadTestConfig config;
+    private final BinaryService service;
+    private final BinaryService.Resolver resolver;
+    private final BinaryService.Resolver digestResolver;
+    private final IOScheduler scheduler;
+    private final ChunkedFileResolver chunkedResolver;
+    private final IRI[] keys;
+    private final Set<Operation> logged = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create a load test
+     * @param config the scenario configuration
+     * @param directory the storage directory
+     */
+    public LoadTest(final LoadTestConfig config, final Path directory) {
+        this.config = config;
+
+        final Properties partition = new Properties();
+        partition.setProperty("prefix", "file:");
+        partition.setProperty("levels", Integer.toString(config.getLevels()));
+        partition.setProperty("length", Integer.toString(config.getLength()));
+
+        final Map<String, String> locations = singletonMap(PARTITION, directory.toString());
+        final BinaryService.Resolver fileResolver;
+        if ("chunked".equals(config.getResolver())) {
+            // Read-ahead runs outside the scheduler, so a scheduled run reads chunks on the worker threads
+            this.chunkedResolver = config.getSchedulerConcurrency() > 0 ? new ChunkedFileResolver(locations, 0)
+                : new ChunkedFileResolver(locations);
+            fileResolver = chunkedResolver;
+        } else if ("file".equals(config.getResolver())) {
+            this.chunkedResolver = null;
+            fileResolver = new FileResolver(locations);
+        } else {
+            throw new IllegalArgumentException("Unknown resolver: " + config.getResolver());
+        }
+        if (config.getSchedulerConcurrency() > 0) {
+            this.scheduler = new IOScheduler(config.getSchedulerConcurrency());
+            final ScheduledResolver scheduled = new ScheduledResolver(fileResolver,
+                    singletonMap(PARTITION, scheduler));
+            this.service = new DefaultBinaryService(new SequentialIdentifierService(),
+                    singletonMap(PARTITION, partition), asList(scheduled));
+            this.digestResolver = scheduled.withPriority(IOPriority.BACKGROUND);
+        } else {
+            this.scheduler = null;
+            this.service = new DefaultBinaryService(new SequentialIdentifierService(),
+                    singletonMap(PARTITION, partition), asList(fileResolver));
+            this.digestResolver = fileResolver;
+        }
+        this.resolver = service.getResolverForPartition(PARTITION).orElseThrow(() ->
+                new IllegalStateException("No resolver for partition " + PARTITION));
+
+        final Supplier<String> supplier = service.getIdentifierSupplier(PARTITION);
+        this.keys = new IRI[config.getKeys()];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = rdf.createIRI(supplier.get());
+        }
+    }
+
+    /**
+     * Stop any threads started by the resolver
+     */
+    @Override
+    public void close() {
+        if (chunkedResolver != null) {
+            chunkedResolver.close();
+        }
+    }
+
+    /**
+     * Run the scenario
+     * @param out the stream to which the report is written
+     * @throws InterruptedException if the run is interrupted
+     * @throws ExecutionException if a worker fails
+     */
+    public void run(final PrintStream out) throws InterruptedException, ExecutionException {
+        final SplittableRandom root = new SplittableRandom(config.getSeed());
+        final SizeDistribution sizes = config.getSizeDistribution();
+        final KeyChooser chooser = new KeyChooser(keys.length, config.getSkew());
+
+        // Split the per-thread generators before any other use, so each thread's workload is fixed by the seed
+        final SplittableRandom preloadRandom = root.split();
+        final List<SplittableRandom> randoms = new ArrayList<>();
+        for (int i = 0; i < config.getThreads(); ++i) {
+            randoms.add(root.split());
+        }
+
+        if (config.getPreload()) {
+            for (final IRI key : keys) {
+                resolver.setContent(PARTITION, key,
+                        new RandomContentStream(preloadRandom.nextLong(), sizes.next(preloadRandom)));
+            }
+        }
+
+        final CountDownLatch ready = new CountDownLatch(randoms.size());
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = newFixedThreadPool(randoms.size());
+        final List<Future<Results>> futures = new ArrayList<>();
+        final Results total = new Results();
+        final long elapsed;
+        try {
+            randoms.forEach(random -> futures.add(executor.submit(new Worker(random, sizes, chooser, ready,
+                                start))));
+            // Workers count down even when they fail, so a failure surfaces from its future below
+            ready.await();
+            final long begin = nanoTime();
+            start.countDown();
+            for (final Future<Results> future : futures) {
+                total.add(future.get());
+            }
+            elapsed = nanoTime() - begin;
+        } finally {
+            // Interrupt any workers still running after another has failed
+            executor.shutdownNow();
+        }
+        report(out, total, elapsed);
+    }
+
+    private void report(final PrintStream out, final Results results, final long elapsed) {
+        final double seconds = elapsed / 1e9;
+        out.printf("Scenario: seed=%d threads=%d operations=%d warmup=%d keys=%d skew=%s%n", config.getSeed(),
+                config.getThreads(), config.getOperations(), config.getWarmup(), keys.length, config.getSkew());
+        out.printf("Mix: %s; sizes: %s; digest: %s; resolver: %s%n", config.getMix(),
+                config.getSizeDistribution(), config.getDigestAlgorithm(), config.getResolver());
+        out.printf("Java %s on %s %s (%d cpus)%n", System.getProperty("java.version"),
+                System.getProperty("os.name"), System.getProperty("os.version"),
+                Runtime.getRuntime().availableProcessors());
+        out.printf("Elapsed: %.3f s%n%n", seconds);
+        out.printf("%-8s %10s %8s %8s %12s %10s %10s %10s %10s%n", "op", "count", "misses", "errors",
+                "ops/s", "p50(us)", "p99(us)", "p999(us)", "max(us)");
+
+        final Histogram all = new Histogram(SIGNIFICANT_DIGITS);
+        for (final Operation op : Operation.values()) {
+            final Histogram histogram = results.histograms.get(op);
+            all.add(histogram);
+            printRow(out, op.name().toLowerCase(ROOT), histogram, results.misses[op.ordinal()],
+                    results.errors[op.ordinal()], seconds);
+        }
+        printRow(out, "total", all, sum(results.misses), sum(results.errors), seconds);
+
+        if (scheduler != null) {
+            out.printf("%nScheduler: concurrency=%d%n", scheduler.getConcurrency());
+            out.printf("%-12s %10s %14s%n", "class", "granted", "mean wait(us)");
+            for (final IOPriority priority : IOPriority.values()) {
+                final long granted = scheduler.getGranted(priority);
+                out.printf("%-12s %10d %14.1f%n", priority.name().toLowerCase(ROOT), granted,
+                        granted == 0 ? 0.0 : scheduler.getWaitTime(priority) / NANOS_PER_MICRO / granted);
+            }
+        }
+    }
+
+    private static void printRow(final PrintStream out, final String name, final Histogram histogram,
+            final long misses, final long errors, final double seconds) {
+        out.printf("%-8s %10d %8d %8d %12.1f %10.1f %10.1f %10.1f %10.1f%n", name, histogram.getTotalCount(),
+                misses, errors, histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50.0) / NANOS_PER_MICRO,
+                histogram.getValueAtPercentile(99.0) / NANOS_PER_MICRO,
+                histogram.getValueAtPercentile(99.9) / NANOS_PER_MICRO,
+                histogram.getMaxValue() / NANOS_PER_MICRO);
+    }
+
+    private static boolean isMiss(final Operation op, final UncheckedIOException ex) {
+        // Reading a key that has been purged, or was never written, is an expected outcome
+        return (op == Operation.READ || op == Operation.DIGEST) && (ex.getCause() instanceof FileNotFoundException
+                || ex.getCause() instanceof NoSuchFileException);
+    }
+
+    private static long sum(final long[] values) {
+        long total = 0L;
+        for (final long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * Latency histograms and outcome counts, per operation.
+     */
+    private static final class Results {
+        private final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+        private final long[] misses = new long[Operation.values().length];
+        private final long[] errors = new long[Operation.values().length];
+
+        Results() {
+            for (final Operation op : Operation.values()) {
+                histograms.put(op, new Histogram(SIGNIFICANT_DIGITS));
+            }
+        }
+
+        void add(final Results other) {
+            for (final Operation op : Operation.values()) {
+                histograms.get(op).add(other.histograms.get(op));
+                misses[op.ordinal()] += other.misses[op.ordinal()];
+                errors[op.ordinal()] += other.errors[op.ordinal()];
+            }
+        }
+    }
+
+    /**
+     * A single worker thread, replaying the workload drawn from its own generator.
+     */
+    private final class Worker implements Callable<Results> {
+        private final SplittableRandom random;
+        private final SizeDistribution sizes;
+        private final KeyChooser chooser;
+        private final CountDownLatch ready;
+        private final CountDownLatch start;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        Worker(final SplittableRandom random, final SizeDistribution sizes, final KeyChooser chooser,
+                final CountDownLatch ready, final CountDownLatch start) {
+            this.random = random;
+            this.sizes = sizes;
+            this.chooser = chooser;
+            this.ready = ready;
+            this.start = start;
+        }
+
+        @Override
+        public Results call() throws InterruptedException {
+            try {
+                final Results warmup = new Results();
+                for (int i = 0; i < config.getWarmup(); ++i) {
+                    execute(warmup);
+                }
+            } finally {
+                ready.countDown();
+            }
+            start.await();
+
+            final Results results = new Results();
+            for (int i = 0; i < config.getOperations(); ++i) {
+                execute(results);
+            }
+            return results;
+        }
+
+        private void execute(final Results results) {
+            final Operation op = config.nextOperation(random);
+            final IRI key = keys[chooser.next(random)];
+            // Draw the content parameters for every operation, so the sequence does not depend on outcomes
+            final long contentSeed = random.nextLong();
+            final long size = sizes.next(random);
+
+            final long start = nanoTime();
+            try {
+                switch (op) {
+                    case READ:
+                        resolver.getContent(PARTITION, key).ifPresent(this::drain);
+                        break;
+                    case WRITE:
+                        resolver.setContent(PARTITION, key, new RandomContentStream(contentSeed, size));
+                        break;
+                    case EXISTS:
+                        resolver.exists(PARTITION, key);
+                        break;
+                    case PURGE:
+                        resolver.purgeContent(PARTITION, key);
+                        break;
+                    default:
+                        digestResolver.getContent(PARTITION, key).ifPresent(this::digest);
+                        break;
+                }
+            } catch (final UncheckedIOException ex) {
+                if (isMiss(op, ex)) {
+                    results.misses[op.ordinal()]++;
+                } else {
+                    recordError(results, op, ex);
+                }
+            } catch (final RuntimeException ex) {
+                recordError(results, op, ex);
+            }
+            results.histograms.get(op).recordValue(nanoTime() - start);
+        }
+
+        private void recordError(final Results results, final Operation op, final RuntimeException ex) {
+            results.errors[op.ordinal()]++;
+            if (logged.add(op)) {
+                LOGGER.warn("First {} error: {}", op.name().toLowerCase(ROOT), ex.getMessage(), ex);
+            }
+        }
+
+        private void digest(final InputStream stream) {
+            // The digest only closes the stream on success, so close it here as well
+            try (final InputStream input = stream) {
+                if (!service.digest(config.getDigestAlgorithm(), input).isPresent()) {
+                    throw new IllegalStateException("Unable to compute a " + config.getDigestAlgorithm() + " digest");
+                }
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private void drain(final InputStream stream) {
+            try (final InputStream input = stream) {
+                int read;
+                do {
+                    read = input.read(buffer);
+                } while (read != -1);
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Run the load test from the command line
+     * @param args an optional path to a properties file
+     * @throws Exception if the load test fails
+     */
+    public static void main(final String[] args) throws Exception {
+        final Properties properties = new Properties();
+        if (args.length > 0) {
+            try (final InputStream input = newInputStream(Paths.get(args[0]))) {
+                properties.load(input);
+            }
+        }
+        System.getProperties().stringPropertyNames().stream().filter(name -> name.startsWith(PREFIX))
+            .forEach(name -> properties.setProperty(name, System.getProperty(name)));
+
+        final LoadTestConfig config = new LoadTestConfig(properties);
+        final Path directory = config.getDirectory() != null ? Paths.get(config.getDirectory())
+            : createTempDirectory("trellis-loadtest");
+        System.out.println("Storing binaries in " + directory);
+        try (final LoadTest test = new LoadTest(config, directory)) {
+            test.run(System.out);
+        }
+    }
+}
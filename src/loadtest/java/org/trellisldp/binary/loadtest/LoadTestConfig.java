@@ -0,0 +1,224 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary.loadtest;
+
+import static java.lang.Double.parseDouble;
+import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
+import static java.util.Locale.ROOT;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * The configuration of a load-test scenario.
+ *
+ * <p>All values are read from properties prefixed with {@code loadtest.};
+ * the same properties and seed always produce the same sequence of
+ * operations, keys and content for each worker thread.</p>
+ *
+ * @author acoburn
+ */
+class LoadTestConfig {
+
+    private static final String PREFIX = "loadtest.";
+
+    private final Properties properties;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private final int[] cumulative;
+    private final int total;
+
+    /**
+     * Create a load-test configuration
+     * @param properties the configuration properties
+     */
+    public LoadTestConfig(final Properties properties) {
+        this.properties = properties;
+        mix.put(Operation.READ, getInt("mix.read", 60));
+        mix.put(Operation.WRITE, getInt("mix.write", 20));
+        mix.put(Operation.EXISTS, getInt("mix.exists", 10));
+        mix.put(Operation.PURGE, getInt("mix.purge", 5));
+        mix.put(Operation.DIGEST, getInt("mix.digest", 5));
+
+        cumulative = new int[Operation.values().length];
+        int sum = 0;
+        for (final Operation op : Operation.values()) {
+            final int weight = mix.get(op);
+            if (weight < 0) {
+                throw new IllegalArgumentException("Operation ratios may not be negative: " + op);
+            }
+            sum += weight;
+            cumulative[op.ordinal()] = sum;
+        }
+        if (sum == 0) {
+            throw new IllegalArgumentException("At least one operation must have a positive ratio");
+        }
+        total = sum;
+    }
+
+    /**
+     * Choose the next operation according to the configured mix
+     * @param random the source of randomness
+     * @return the operation
+     */
+    public Operation nextOperation(final SplittableRandom random) {
+        final int value = random.nextInt(total);
+        for (final Operation op : Operation.values()) {
+            if (value < cumulative[op.ordinal()]) {
+                return op;
+            }
+        }
+        throw new IllegalStateException("Unreachable operation weight: " + value);
+    }
+
+    /**
+     * Get the operation mix
+     * @return the relative weight of each operation
+     */
+    public Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    /**
+     * Get the random seed
+     * @return the seed
+     */
+    public long getSeed() {
+        return getLong("seed", 42L);
+    }
+
+    /**
+     * Get the number of concurrent worker threads
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return getInt("threads", 4);
+    }
+
+    /**
+     * Get the number of measured operations per thread
+     * @return the number of operations
+     */
+    public int getOperations() {
+        return getInt("operations", 10000);
+    }
+
+    /**
+     * Get the number of unmeasured warm-up operations per thread
+     * @return the number of warm-up operations
+     */
+    public int getWarmup() {
+        return getInt("warmup", 1000);
+    }
+
+    /**
+     * Get the size of the keyspace
+     * @return the number of distinct keys
+     */
+    public int getKeys() {
+        return getInt("keys", 1000);
+    }
+
+    /**
+     * Get the Zipf exponent used to skew access toward hot keys
+     * @return the skew, where 0 is uniform
+     */
+    public double getSkew() {
+        return getDouble("skew", 0.99);
+    }
+
+    /**
+     * Whether to write every key before the measured run
+     * @return true if the keyspace should be preloaded
+     */
+    public boolean getPreload() {
+        return Boolean.parseBoolean(get("preload", "true"));
+    }
+
+    /**
+     * Get the digest algorithm used by digest operations
+     * @return the algorithm name
+     */
+    public String getDigestAlgorithm() {
+        return get("digest.algorithm", "SHA-256");
+    }
+
+    /**
+     * Get the storage directory
+     * @return the directory, or null to use a temporary directory
+     */
+    public String getDirectory() {
+        return properties.getProperty(PREFIX + "directory");
+    }
+
+    /**
+     * Get the identifier hierarchy levels for the partition
+     * @return the number of levels
+     */
+    public int getLevels() {
+        return getInt("levels", 2);
+    }
+
+    /**
+     * Get the length of each identifier hierarchy segment
+     * @return the segment length
+     */
+    public int getLength() {
+        return getInt("length", 2);
+    }
+
+    /**
+     * Get the storage mode of the partition
+     * @return either {@code file} or {@code chunked}
+     */
+    public String getResolver() {
+        return get("resolver", "file").toLowerCase(ROOT);
+    }
+
+    /**
+     * Get the I/O scheduler concurrency limit for the partition
+     * @return the concurrency limit, or 0 to leave I/O unscheduled
+     */
+    public int getSchedulerConcurrency() {
+        return getInt("scheduler.concurrency", 0);
+    }
+
+    /**
+     * Get the size distribution
+     * @return the size distribution
+     */
+    public SizeDistribution getSizeDistribution() {
+        return new SizeDistribution(get("size.distribution", "lognormal").toLowerCase(ROOT),
+                getLong("size.min", 1024L), getLong("size.max", 16L * 1024 * 1024),
+                getLong("size.median", 64L * 1024), getDouble("size.sigma", 1.0));
+    }
+
+    private String get(final String key, final String defaultValue) {
+        return properties.getProperty(PREFIX + key, defaultValue).trim();
+    }
+
+    private int getInt(final String key, final int defaultValue) {
+        return parseInt(get(key, Integer.toString(defaultValue)));
+    }
+
+    private long getLong(final String key, final long defaultValue) {
+        return parseLong(get(key, Long.toString(defaultValue)));
+    }
+
+    private double getDouble(final String key, final double defaultValue) {
+        return parseDouble(get(key, Double.toString(defaultValue)));
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary.loadtest;
+
+/**
+ * The operations exercised by the load test.
+ *
+ * @author acoburn
+ */
+public enum Operation {
+
+    /** Read the full content of a binary. */
+    READ,
+
+    /** Write (or replace) the content of a binary. */
+    WRITE,
+
+    /** Test whether a binary exists. */
+    EXISTS,
+
+    /** Remove a binary. */
+    PURGE,
+
+    /** Read a binary and compute its digest. */
+    DIGEST
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary.loadtest;
+
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+/**
+ * A stream of pseudo-random bytes of a given length.
+ *
+ * <p>The content is generated on demand, so large binaries are never
+ * held in memory.</p>
+ *
+ * @author acoburn
+ */
+class RandomContentStream extends InputStream {
+
+    private final SplittableRandom random;
+    private long remaining;
+
+    /**
+     * Create a stream of random content
+     * @param seed the seed for the content
+     * @param length the number of bytes to produce
+     */
+    public RandomContentStream(final long seed, final long length) {
+        this.random = new SplittableRandom(seed);
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() {
+        if (remaining <= 0) {
+            return -1;
+        }
+        remaining--;
+        return random.nextInt(256);
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        if (remaining <= 0) {
+            return -1;
+        }
+        final int count = (int) Math.min(length, remaining);
+        int i = 0;
+        while (i < count) {
+            long value = random.nextLong();
+            for (int j = 0; j < Long.BYTES && i < count; ++j, ++i) {
+                buffer[offset + i] = (byte) value;
+                value >>>= Byte.SIZE;
+            }
+        }
+        remaining -= count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary.loadtest;
+
+import static java.lang.String.format;
+
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.trellisldp.api.IdentifierService;
+
+/**
+ * A deterministic identifier service, so that a scenario mints the same
+ * identifiers each time it is run.
+ *
+ * @author acoburn
+ */
+class SequentialIdentifierService implements IdentifierService {
+
+    private static final int ID_LENGTH = 16;
+
+    @Override
+    public Supplier<String> getSupplier(final String prefix, final Integer hierarchy, final Integer length) {
+        if (hierarchy * length > ID_LENGTH) {
+            throw new IllegalArgumentException("Hierarchy may not exceed " + ID_LENGTH + " characters");
+        }
+        final AtomicLong counter = new AtomicLong();
+        return () -> {
+            final String id = format("%016x", counter.getAndIncrement());
+            final StringJoiner joiner = new StringJoiner("/", prefix, "");
+            for (int i = 0; i < hierarchy; ++i) {
+                joiner.add(id.substring(id.length() - (i + 1) * length, id.length() - i * length));
+            }
+            return joiner.add(id).toString();
+        };
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary.loadtest;
+
+import java.util.SplittableRandom;
+
+/**
+ * A distribution of binary sizes, in bytes.
+ *
+ * @author acoburn
+ */
+class SizeDistribution {
+
+    private final String type;
+    private final long min;
+    private final long max;
+    private final long median;
+    private final double sigma;
+
+    /**
+     * Create a size distribution
+     * @param type one of {@code fixed}, {@code uniform} or {@code lognormal}
+     * @param min the minimum size
+     * @param max the maximum size
+     * @param median the fixed size or the median of the lognormal distribution
+     * @param sigma the shape of the lognormal distribution
+     */
+    public SizeDistribution(final String type, final long min, final long max, final long median,
+            final double sigma) {
+        if (!"fixed".equals(type) && !"uniform".equals(type) && !"lognormal".equals(type)) {
+            throw new IllegalArgumentException("Unknown size distribution: " + type);
+        }
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Invalid size bounds: " + min + " - " + max);
+        }
+        this.type = type;
+        this.min = min;
+        this.max = max;
+        this.median = median;
+        this.sigma = sigma;
+    }
+
+    /**
+     * Choose the next size
+     * @param random the source of randomness
+     * @return a size, in bytes
+     */
+    public long next(final SplittableRandom random) {
+        switch (type) {
+            case "fixed":
+                return median;
+            case "uniform":
+                return min == max ? min : random.nextLong(min, max + 1);
+            default:
+                final double size = median * Math.exp(sigma * gaussian(random));
+                return Math.max(min, Math.min(max, Math.round(size)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case "fixed":
+                return "fixed(" + median + ")";
+            case "uniform":
+                return "uniform(" + min + ", " + max + ")";
+            default:
+                return "lognormal(median=" + median + ", sigma=" + sigma + ", min=" + min + ", max=" + max + ")";
+        }
+    }
+
+    private static double gaussian(final SplittableRandom random) {
+        // Box-Muller, so that the sequence depends only on the seeded generator
+        final double u1 = 1.0 - random.nextDouble();
+        final double u2 = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u1)) * Math.cos(2.0 * Math.PI * u2);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An input stream that reassembles content from its chunks.
+ *
+ * <p>Chunks are read ahead of the consumer on an executor, so that reading
+ * from disk overlaps with the consumption of earlier chunks.</p>
+ *
+ * @author acoburn
+ */
+class ChunkInputStream extends InputStream {
+
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final Iterator<Path> chunks;
+    private final ExecutorService executor;
+    private final int prefetch;
+    private final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+    private final Deque<byte[]> buffers = new ArrayDeque<>();
+    private Chunk current;
+    private int position;
+    private boolean started;
+    private boolean closed;
+
+    /**
+     * Create a stream over a sequence of chunks
+     * @param chunks the chunk files, in order
+     * @param executor the executor on which chunks are read ahead
+     * @param prefetch the number of chunks to read ahead, once reading starts, where with none each chunk is
+     *                 read on the consumer's thread
+     */
+    public ChunkInputStream(final List<Path> chunks, final ExecutorService executor, final int prefetch) {
+        this.chunks = chunks.iterator();
+        this.executor = executor;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!advance()) {
+            return -1;
+        }
+        return current.buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!advance()) {
+            return -1;
+        }
+        final int count = Math.min(length, current.length - position);
+        System.arraycopy(current.buffer, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        pending.forEach(future -> future.cancel(true));
+        pending.clear();
+        current = null;
+    }
+
+    private boolean advance() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (!started) {
+            // Nothing is read until the consumer asks, so a stream that is opened but never read costs no I/O
+            started = true;
+            for (int i = 0; i < prefetch && chunks.hasNext(); ++i) {
+                prefetch();
+            }
+        }
+        while (current == null || position >= current.length) {
+            if (pending.isEmpty() && !chunks.hasNext()) {
+                return false;
+            }
+            if (current != null) {
+                buffers.add(current.buffer);
+                current = null;
+            }
+            final Future<Chunk> next = pending.poll();
+            if (next == null) {
+                current = readChunk(chunks.next(), buffers.poll());
+            } else {
+                if (chunks.hasNext()) {
+                    prefetch();
+                }
+                current = await(next);
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    private void prefetch() {
+        final Path chunk = chunks.next();
+        final byte[] buffer = buffers.poll();
+        pending.add(executor.submit(() -> readChunk(chunk, buffer)));
+    }
+
+    private static Chunk readChunk(final Path path, final byte[] buffer) throws IOException {
+        final File file = path.toFile();
+        final long size = file.length();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Chunk is too large: " + path);
+        }
+        final byte[] target = buffer == null || size > buffer.length ? new byte[(int) size] : buffer;
+        try (final InputStream input = new FileInputStream(file)) {
+            // Read in slices, since large reads into a heap array are staged through a native copy
+            int length = 0;
+            while (length < size) {
+                final int read = input.read(target, length, (int) Math.min(READ_SIZE, size - length));
+                if (read < 0) {
+                    throw new IOException("Unexpected end of chunk: " + path);
+                }
+                length += read;
+            }
+        }
+        return new Chunk(target, (int) size);
+    }
+
+    private static Chunk await(final Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading a chunk");
+        } catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * The content of a chunk, held in a recyclable buffer.
+     */
+    private static final class Chunk {
+        private final byte[] buffer;
+        private final int length;
+
+        Chunk(final byte[] buffer, final int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,563 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.move;
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.Files.readAllLines;
+import static java.nio.file.Files.walk;
+import static java.nio.file.Files.write;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Objects.requireNonNull;
+import static java.util.Optional.of;
+import static java.util.Optional.ofNullable;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.stream.Collectors.toList;
+import static org.apache.commons.codec.binary.Hex.encodeHexString;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.rdf.api.IRI;
+import org.slf4j.Logger;
+
+/**
+ * A File-based Binary Resolver that stores content as deduplicated chunks.
+ *
+ * <p>Incoming content is split by a {@link ContentChunker}, and each distinct chunk is stored
+ * once per partition, named by its SHA-256 digest, under {@code .chunks/data}. The binary itself
+ * is saved as a manifest listing its chunks, under {@code .chunks/manifests}. New versions of a
+ * large binary that differ only in places therefore share most of their storage, and copying a
+ * binary within a partition copies only its manifest.</p>
+ *
+ * <p>Content is reassembled by a reader that fetches chunks ahead of the consumer, or, when
+ * configured without read-ahead, on the consumer's own thread. A binary with no manifest is read
+ * as a plain file, so an existing {@link FileResolver} partition may be switched to this
+ * resolver.</p>
+ *
+ * <p>Purging or replacing a binary only removes its manifest. The chunks no manifest refers to
+ * are reclaimed by {@link #collectGarbage}, which should be run periodically. A chunk is deleted
+ * only once it has been unreferenced for a grace period, so that streams opened before their
+ * content was purged can finish. A sweep reads every manifest in the partition; while it runs,
+ * writes wait before storing their next chunk, but a sweep never waits for a client.</p>
+ *
+ * <p>The resolver reads ahead on its own threads, which are stopped by {@link #close}.</p>
+ *
+ * @author acoburn
+ */
+public class ChunkedFileResolver extends FileResolver implements AutoCloseable {
+
+    private static final String MANIFEST_HEADER = "trellis-chunks 1";
+    private static final Pattern CHUNK_NAME = Pattern.compile("[0-9a-f]{64}");
+    private static final String CHUNK_DIRECTORY = ".chunks";
+    private static final String DATA_DIRECTORY = "data";
+    private static final String MANIFEST_DIRECTORY = "manifests";
+    private static final String STAGING_DIRECTORY = "staging";
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_MIN_SIZE = 256 * 1024;
+    private static final int DEFAULT_AVG_SIZE = 1024 * 1024;
+    private static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+    private static final int DEFAULT_PREFETCH = 4;
+    private static final Duration DEFAULT_GRACE_PERIOD = Duration.ofMillis(MINUTES.toMillis(10L));
+    private static final long STALE_AGE = HOURS.toMillis(1L);
+
+    private static final Logger LOGGER = getLogger(ChunkedFileResolver.class);
+
+    private final Map<String, Store> stores = new ConcurrentHashMap<>();
+    private final ContentChunker chunker;
+    private final int prefetch;
+    private final ExecutorService executor;
+
+    /**
+     * Create a chunked File-based Binary Resolver with the default chunk sizes
+     * @param partitions a mapping of partition locations
+     */
+    public ChunkedFileResolver(final Map<String, String> partitions) {
+        this(partitions, DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE, DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Create a chunked File-based Binary Resolver with the default chunk sizes
+     * @param partitions a mapping of partition locations
+     * @param prefetch the number of chunks to read ahead of a consumer, where with none chunks are read on the
+     *                 consumer's thread
+     */
+    public ChunkedFileResolver(final Map<String, String> partitions, final int prefetch) {
+        this(partitions, DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE, prefetch);
+    }
+
+    /**
+     * Create a chunked File-based Binary Resolver
+     * @param partitions a mapping of partition locations
+     * @param minSize the minimum chunk size
+     * @param avgSize the approximate average chunk size
+     * @param maxSize the maximum chunk size
+     * @param prefetch the number of chunks to read ahead of a consumer, where with none chunks are read on the
+     *                 consumer's thread
+     */
+    public ChunkedFileResolver(final Map<String, String> partitions, final int minSize, final int avgSize,
+            final int maxSize, final int prefetch) {
+        super(partitions);
+        if (prefetch < 0) {
+            throw new IllegalArgumentException("Prefetch may not be negative: " + prefetch);
+        }
+        this.chunker = new ContentChunker(minSize, avgSize, maxSize);
+        this.prefetch = prefetch;
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = newFixedThreadPool(Math.max(prefetch, Runtime.getRuntime().availableProcessors()),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "trellis-chunk-reader-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Stop the threads that read chunks ahead of consumers
+     *
+     * <p>Streams of multi-chunk content opened from this resolver can no longer be read.</p>
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public Boolean exists(final String partition, final IRI identifier) {
+        return getManifest(partition, identifier).filter(File::isFile).isPresent()
+            || super.exists(partition, identifier);
+    }
+
+    @Override
+    public Optional<InputStream> getContent(final String partition, final IRI identifier) {
+        final Optional<File> manifest = getManifest(partition, identifier).filter(File::isFile);
+        if (!manifest.isPresent()) {
+            return super.getContent(partition, identifier);
+        }
+        try {
+            final Path directory = getDataDirectory(partition);
+            final List<Path> chunks = readManifest(manifest.get()).stream().map(hex -> getChunkPath(directory, hex))
+                .collect(toList());
+            if (chunks.size() == 1) {
+                return of(new FileInputStream(chunks.get(0).toFile()));
+            }
+            return of(new ChunkInputStream(chunks, executor, prefetch));
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void purgeContent(final String partition, final IRI identifier) {
+        // The chunks are left for collectGarbage, which waits for any open streams to finish
+        getManifest(partition, identifier).ifPresent(File::delete);
+        super.purgeContent(partition, identifier);
+    }
+
+    @Override
+    public void setContent(final String partition, final IRI identifier, final InputStream stream,
+            final Map<String, String> metadata) {
+        requireNonNull(stream, "InputStream may not be null!");
+        getManifest(partition, identifier).ifPresent(manifest -> {
+            LOGGER.debug("Setting chunked binary content for {} at {}", identifier.getIRIString(),
+                    manifest.getAbsolutePath());
+            final Store store = getStore(partition);
+            final List<String> digests = new ArrayList<>();
+            try {
+                writeChunks(partition, store, stream, digests);
+                stream.close();
+                installManifest(partition, manifest.toPath(), digests);
+            } catch (final IOException ex) {
+                LOGGER.error("Error while setting content: {}", ex.getMessage());
+                throw new UncheckedIOException(ex);
+            } finally {
+                store.unpin(digests);
+            }
+            // The manifest replaces any plain content stored for this identifier
+            super.purgeContent(partition, identifier);
+        });
+    }
+
+    /**
+     * Copy binary content to another identifier, which may be in another partition
+     *
+     * <p>Chunked content is copied by copying its manifest. When the target is in another
+     * partition, any chunks that partition lacks are first copied, or linked, into it.</p>
+     *
+     * @param partition the source partition
+     * @param identifier the source identifier
+     * @param targetPartition the target partition
+     * @param targetIdentifier the target identifier
+     */
+    @Override
+    public void copyContent(final String partition, final IRI identifier, final String targetPartition,
+            final IRI targetIdentifier) {
+        final Optional<File> source = getManifest(partition, identifier).filter(File::isFile);
+        if (!source.isPresent()) {
+            super.copyContent(partition, identifier, targetPartition, targetIdentifier);
+            getManifest(targetPartition, targetIdentifier).ifPresent(File::delete);
+            return;
+        }
+        getManifest(targetPartition, targetIdentifier).ifPresent(target -> {
+            LOGGER.debug("Copying chunked binary content from {} to {}", source.get().getAbsolutePath(),
+                    target.getAbsolutePath());
+            final Store sourceStore = getStore(partition);
+            final Store targetStore = getStore(targetPartition);
+            final List<String> sourcePins = new ArrayList<>();
+            final List<String> targetPins = new ArrayList<>();
+            try {
+                final List<String> digests = readManifest(source.get());
+                // Hold the chunks, then check that a sweep has not already taken them
+                sourceStore.pin(digests, sourcePins);
+                targetStore.pin(digests, targetPins);
+                final Path sourceDirectory = getDataDirectory(partition);
+                final Path targetDirectory = getDataDirectory(targetPartition);
+                for (final String hex : digests) {
+                    final Path chunk = getChunkPath(sourceDirectory, hex);
+                    if (!chunk.toFile().isFile()) {
+                        throw new NoSuchFileException(chunk.toString());
+                    }
+                    final Path copy = getChunkPath(targetDirectory, hex);
+                    if (!copy.toFile().isFile()) {
+                        createDirectories(copy.getParent());
+                        copyFile(chunk, copy);
+                    }
+                }
+                installManifest(targetPartition, target.toPath(), digests);
+            } catch (final IOException ex) {
+                LOGGER.error("Error while copying content: {}", ex.getMessage());
+                throw new UncheckedIOException(ex);
+            } finally {
+                sourceStore.unpin(sourcePins);
+                targetStore.unpin(targetPins);
+            }
+            super.purgeContent(targetPartition, targetIdentifier);
+        });
+    }
+
+    /**
+     * Move binary content to another identifier, which may be in another partition
+     *
+     * <p>Within a partition, chunked content is moved by renaming its manifest. Across partitions,
+     * it is copied as with {@link #copyContent} and the source is then purged.</p>
+     *
+     * @param partition the source partition
+     * @param identifier the source identifier
+     * @param targetPartition the target partition
+     * @param targetIdentifier the target identifier
+     */
+    @Override
+    public void moveContent(final String partition, final IRI identifier, final String targetPartition,
+            final IRI targetIdentifier) {
+        final Optional<File> source = getManifest(partition, identifier).filter(File::isFile);
+        if (!source.isPresent()) {
+            super.moveContent(partition, identifier, targetPartition, targetIdentifier);
+            getManifest(targetPartition, targetIdentifier).ifPresent(File::delete);
+        } else if (!partition.equals(targetPartition)) {
+            copyContent(partition, identifier, targetPartition, targetIdentifier);
+            purgeContent(partition, identifier);
+        } else {
+            getManifest(targetPartition, targetIdentifier).ifPresent(target -> {
+                LOGGER.debug("Moving chunked binary content from {} to {}", source.get().getAbsolutePath(),
+                        target.getAbsolutePath());
+                final ReadWriteLock lock = getStore(partition).lock;
+                // A sweep must find the manifest under one of its names
+                lock.readLock().lock();
+                try {
+                    createDirectories(target.toPath().getParent());
+                    renameFile(source.get().toPath(), target.toPath());
+                } catch (final IOException ex) {
+                    LOGGER.error("Error while moving content: {}", ex.getMessage());
+                    throw new UncheckedIOException(ex);
+                } finally {
+                    lock.readLock().unlock();
+                }
+                super.purgeContent(targetPartition, targetIdentifier);
+            });
+        }
+    }
+
+    /**
+     * Remove the chunks in a partition that no manifest has referred to for the default grace period
+     * @param partition the partition
+     * @return the number of chunks removed
+     */
+    public int collectGarbage(final String partition) {
+        return collectGarbage(partition, DEFAULT_GRACE_PERIOD);
+    }
+
+    /**
+     * Remove the chunks in a partition that no manifest has referred to for a grace period
+     *
+     * <p>A chunk is first found unreferenced by one sweep, and deleted by a later sweep once the
+     * grace period has passed, if it is still unreferenced. With no grace period, unreferenced
+     * chunks are deleted at once. Files left by interrupted writes are also removed.</p>
+     *
+     * @param partition the partition
+     * @param gracePeriod how long a chunk must have been unreferenced before it is deleted
+     * @return the number of chunks removed
+     */
+    public int collectGarbage(final String partition, final Duration gracePeriod) {
+        if (!getPartitionDirectory(partition).isPresent()) {
+            return 0;
+        }
+        final Store store = getStore(partition);
+        final long now = System.currentTimeMillis();
+        store.lock.writeLock().lock();
+        try (final Stream<Path> manifests = listFiles(getManifestDirectory(partition));
+                final Stream<Path> chunks = listFiles(getDataDirectory(partition));
+                final Stream<Path> staged = listFiles(getStagingDirectory(partition))) {
+            final Set<String> referenced = new HashSet<>(store.pins.keySet());
+            for (final Iterator<Path> iter = manifests.iterator(); iter.hasNext();) {
+                referenced.addAll(readManifest(iter.next().toFile()));
+            }
+            final Map<String, Long> condemned = new HashMap<>();
+            int removed = 0;
+            for (final Iterator<Path> iter = chunks.iterator(); iter.hasNext();) {
+                final Path chunk = iter.next();
+                final String name = chunk.getFileName().toString();
+                if (!CHUNK_NAME.matcher(name).matches()) {
+                    deleteIfStale(chunk, now);
+                } else if (!referenced.contains(name)) {
+                    final long since = store.condemned.getOrDefault(name, now);
+                    if (now - since >= gracePeriod.toMillis()) {
+                        if (deleteIfExists(chunk)) {
+                            removed++;
+                        }
+                    } else {
+                        condemned.put(name, since);
+                    }
+                }
+            }
+            for (final Iterator<Path> iter = staged.iterator(); iter.hasNext();) {
+                deleteIfStale(iter.next(), now);
+            }
+            // Chunks referenced again are forgiven; the rest wait for a later sweep
+            store.condemned.clear();
+            store.condemned.putAll(condemned);
+            LOGGER.info("Removed {} unreferenced chunks from partition {}, {} more awaiting the grace period",
+                    removed, partition, condemned.size());
+            return removed;
+        } catch (final IOException ex) {
+            LOGGER.error("Error while collecting chunks: {}", ex.getMessage());
+            throw new UncheckedIOException(ex);
+        } finally {
+            store.lock.writeLock().unlock();
+        }
+    }
+
+    private void writeChunks(final String partition, final Store store, final InputStream stream,
+            final List<String> digests) throws IOException {
+        final Path directory = getDataDirectory(partition);
+        final Path staging = getStagingDirectory(partition);
+        byte[] buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, chunker.getMaxSize())];
+        int length = 0;
+        boolean eof = false;
+        while (true) {
+            while (!eof && length < chunker.getMaxSize()) {
+                if (length == buffer.length) {
+                    // Grow toward the maximum chunk size only as content arrives, so small binaries stay cheap
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, chunker.getMaxSize()));
+                }
+                final int read = stream.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    length += read;
+                }
+            }
+            if (length == 0) {
+                return;
+            }
+            final int boundary = chunker.nextBoundary(buffer, length);
+            writeChunk(store, directory, staging, buffer, boundary, digests);
+            System.arraycopy(buffer, boundary, buffer, 0, length - boundary);
+            length -= boundary;
+        }
+    }
+
+    private void installManifest(final String partition, final Path target, final List<String> digests)
+            throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add(MANIFEST_HEADER);
+        lines.addAll(digests);
+        final Path staged = stage(getStagingDirectory(partition));
+        try {
+            write(staged, lines, UTF_8, CREATE_NEW);
+            createDirectories(target.getParent());
+            move(staged, target, ATOMIC_MOVE);
+        } finally {
+            deleteIfExists(staged);
+        }
+    }
+
+    private static void writeChunk(final Store store, final Path directory, final Path staging,
+            final byte[] buffer, final int length, final List<String> digests) throws IOException {
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(buffer, 0, length);
+        final String hex = encodeHexString(digest.digest());
+        // Pin the chunk before checking for it, so a sweep cannot remove it once it is reused
+        store.pin(Arrays.asList(hex), digests);
+        final Path chunk = getChunkPath(directory, hex);
+        if (chunk.toFile().isFile()) {
+            LOGGER.debug("Reusing stored chunk {}", hex);
+            return;
+        }
+        final Path staged = stage(staging);
+        try {
+            try (final OutputStream output = newOutputStream(staged, CREATE_NEW)) {
+                output.write(buffer, 0, length);
+            }
+            createDirectories(chunk.getParent());
+            // Concurrent writers of the same chunk write the same bytes, so either may win the rename
+            move(staged, chunk, ATOMIC_MOVE);
+        } finally {
+            deleteIfExists(staged);
+        }
+    }
+
+    private static Path stage(final Path staging) throws IOException {
+        createDirectories(staging);
+        return staging.resolve(randomUUID().toString());
+    }
+
+    private static void deleteIfStale(final Path path, final long now) throws IOException {
+        if (now - path.toFile().lastModified() >= STALE_AGE) {
+            LOGGER.debug("Removing {}, left by an interrupted write", path);
+            deleteIfExists(path);
+        }
+    }
+
+    private static List<String> readManifest(final File manifest) throws IOException {
+        final List<String> lines = readAllLines(manifest.toPath(), UTF_8);
+        if (lines.isEmpty() || !MANIFEST_HEADER.equals(lines.get(0))) {
+            throw new IOException("Invalid chunk manifest: " + manifest);
+        }
+        final List<String> digests = new ArrayList<>(lines.size() - 1);
+        for (final String line : lines.subList(1, lines.size())) {
+            if (!CHUNK_NAME.matcher(line).matches()) {
+                throw new IOException("Invalid chunk reference in manifest " + manifest);
+            }
+            digests.add(line);
+        }
+        return unmodifiableList(digests);
+    }
+
+    private static Stream<Path> listFiles(final Path directory) throws IOException {
+        try {
+            return walk(directory).filter(path -> path.toFile().isFile());
+        } catch (final NoSuchFileException ex) {
+            return Stream.empty();
+        }
+    }
+
+    private Store getStore(final String partition) {
+        return stores.computeIfAbsent(partition, key -> new Store());
+    }
+
+    private Path getDataDirectory(final String partition) {
+        return getChunkDirectory(partition).resolve(DATA_DIRECTORY);
+    }
+
+    private Path getManifestDirectory(final String partition) {
+        return getChunkDirectory(partition).resolve(MANIFEST_DIRECTORY);
+    }
+
+    private Path getStagingDirectory(final String partition) {
+        return getChunkDirectory(partition).resolve(STAGING_DIRECTORY);
+    }
+
+    private Path getChunkDirectory(final String partition) {
+        return getPartitionDirectory(partition).map(dir -> new File(dir, CHUNK_DIRECTORY).toPath())
+            .orElseThrow(() -> new IllegalArgumentException("Invalid partition: " + partition));
+    }
+
+    private static Path getChunkPath(final Path directory, final String hex) {
+        return directory.resolve(hex.substring(0, 2)).resolve(hex.substring(2, 4)).resolve(hex);
+    }
+
+    private Optional<File> getManifest(final String partition, final IRI identifier) {
+        return getPartitionDirectory(partition).flatMap(dir -> ofNullable(identifier).map(IRI::getIRIString)
+                .map(URI::create).map(URI::getSchemeSpecificPart)
+                .map(path -> new File(new File(new File(dir, CHUNK_DIRECTORY), MANIFEST_DIRECTORY), path)));
+    }
+
+    /**
+     * The garbage collection state of a partition.
+     *
+     * <p>Writers pin each chunk, under the read lock, before they check for it, and unpin it only
+     * once the manifest that refers to it is in place. A sweep holds the write lock, so no chunk is
+     * pinned while it runs, and it keeps every chunk pinned when it starts; any manifest installed
+     * during the sweep refers only to those. Renaming a manifest also takes the read lock, so that a
+     * sweep cannot miss it between its two names.</p>
+     */
+    private static final class Store {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Integer> pins = new ConcurrentHashMap<>();
+        private final Map<String, Long> condemned = new HashMap<>();
+
+        void pin(final Collection<String> digests, final List<String> pinned) {
+            lock.readLock().lock();
+            try {
+                for (final String hex : digests) {
+                    pins.merge(hex, 1, Integer::sum);
+                    pinned.add(hex);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void unpin(final Collection<String> digests) {
+            digests.forEach(hex -> pins.computeIfPresent(hex, (key, count) -> count > 1 ? count - 1 : null));
+        }
+    }
+}
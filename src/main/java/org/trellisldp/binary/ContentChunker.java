@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary;
+
+/**
+ * A content-defined chunker, using a gear rolling hash.
+ *
+ * <p>Chunk boundaries depend only on the bytes near them, so an edit to one
+ * region of a stream leaves the boundaries, and therefore the chunks, of the
+ * rest of the stream unchanged.</p>
+ *
+ * @author acoburn
+ */
+class ContentChunker {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // The gear table determines where stored content is split. It must never
+        // change, or new versions of a binary will no longer share chunks with old ones.
+        long seed = 0x7472656c6c6973L;
+        for (int i = 0; i < GEAR.length; ++i) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+
+    /**
+     * Create a content-defined chunker
+     * @param minSize the minimum chunk size
+     * @param avgSize the approximate average chunk size
+     * @param maxSize the maximum chunk size
+     */
+    public ContentChunker(final int minSize, final int avgSize, final int maxSize) {
+        if (minSize < 1 || avgSize <= minSize || maxSize <= avgSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min < average < max");
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        // Test the high bits of the hash, which depend on the most recent 64 bytes
+        final int bits = 63 - Long.numberOfLeadingZeros(avgSize - minSize);
+        this.mask = bits == 0 ? 0L : -1L << (64 - bits);
+    }
+
+    /**
+     * Get the maximum chunk size
+     * @return the maximum size of a chunk
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Find the end of the next chunk
+     * @param buffer the buffered content, starting at the beginning of a chunk
+     * @param length the number of buffered bytes; this must be at least the maximum
+     *               chunk size, unless the buffer holds the end of the stream
+     * @return the length of the next chunk
+     */
+    public int nextBoundary(final byte[] buffer, final int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        final int end = Math.min(length, maxSize);
+        long hash = 0L;
+        for (int i = minSize; i < end; ++i) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & mask) == 0L) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
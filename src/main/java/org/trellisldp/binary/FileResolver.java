@@ -14,11 +14,21 @@
 package org.trellisldp.binary;
 
 import static java.nio.file.Files.copy;
+import static java.nio.file.Files.createLink;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.isSameFile;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.unmodifiableMap;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
+import static java.util.UUID.randomUUID;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import java.io.File;
@@ -28,6 +38,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -45,6 +60,8 @@ public class FileResolver implements BinaryService.Resolver {
 
     private static final String FILE_RESOLVER_NO_MULTIPART = "File Resolver does not support multipart uploads";
 
+    private static final long MAX_TRANSFER_SIZE = 1L << 30;
+
     private static final Logger LOGGER = getLogger(FileResolver.class);
 
     private final Map<String, String> partitions;
@@ -136,6 +153,160 @@ public class FileResolver implements BinaryService.Resolver {
         });
     }
 
+    /**
+     * Copy binary content to another identifier, which may be in another partition
+     *
+     * <p>When the source and target share a filesystem, the target is created as a hard link to the
+     * same data, so no bytes are copied. Otherwise, the content is transferred with
+     * {@link FileChannel#transferTo}, which leaves the copying to the operating system. In either
+     * case, the target is replaced atomically.</p>
+     *
+     * @param partition the source partition
+     * @param identifier the source identifier
+     * @param targetPartition the target partition
+     * @param targetIdentifier the target identifier
+     */
+    public void copyContent(final String partition, final IRI identifier, final String targetPartition,
+            final IRI targetIdentifier) {
+        getFileFromIdentifier(partition, identifier).ifPresent(source ->
+            getFileFromIdentifier(targetPartition, targetIdentifier).ifPresent(target -> {
+                LOGGER.debug("Copying binary content from {} to {}", source.getAbsolutePath(),
+                        target.getAbsolutePath());
+                try {
+                    target.getParentFile().mkdirs();
+                    copyFile(source.toPath(), target.toPath());
+                } catch (final IOException ex) {
+                    LOGGER.error("Error while copying content: {}", ex.getMessage());
+                    throw new UncheckedIOException(ex);
+                }
+            }));
+    }
+
+    /**
+     * Move binary content to another identifier, which may be in another partition
+     *
+     * <p>Within a filesystem, this is an atomic rename. Across filesystems, the content is copied
+     * as with {@link #copyContent} and the source is then removed.</p>
+     *
+     * @param partition the source partition
+     * @param identifier the source identifier
+     * @param targetPartition the target partition
+     * @param targetIdentifier the target identifier
+     */
+    public void moveContent(final String partition, final IRI identifier, final String targetPartition,
+            final IRI targetIdentifier) {
+        getFileFromIdentifier(partition, identifier).ifPresent(source ->
+            getFileFromIdentifier(targetPartition, targetIdentifier).ifPresent(target -> {
+                LOGGER.debug("Moving binary content from {} to {}", source.getAbsolutePath(),
+                        target.getAbsolutePath());
+                try {
+                    target.getParentFile().mkdirs();
+                    try {
+                        renameFile(source.toPath(), target.toPath());
+                    } catch (final AtomicMoveNotSupportedException ex) {
+                        copyFile(source.toPath(), target.toPath());
+                        delete(source.toPath());
+                    }
+                } catch (final IOException ex) {
+                    LOGGER.error("Error while moving content: {}", ex.getMessage());
+                    throw new UncheckedIOException(ex);
+                }
+            }));
+    }
+
+    /**
+     * Rename a file atomically
+     * @param source the existing file
+     * @param target the new location
+     * @throws IOException if the file cannot be renamed, including across filesystems
+     */
+    void renameFile(final Path source, final Path target) throws IOException {
+        move(source, target, ATOMIC_MOVE);
+    }
+
+    /**
+     * Create a hard link to a file
+     * @param link the link to create
+     * @param existing the existing file
+     * @throws IOException if the link cannot be created, including across filesystems
+     */
+    void linkFile(final Path link, final Path existing) throws IOException {
+        createLink(link, existing);
+    }
+
+    /**
+     * Copy a file, by linking it where possible, and atomically replace the target
+     * @param source the existing file
+     * @param target the new location
+     * @throws IOException if the file cannot be copied
+     */
+    void copyFile(final Path source, final Path target) throws IOException {
+        if (!source.toFile().isFile()) {
+            throw new NoSuchFileException(source.toString());
+        }
+        if (target.toFile().exists() && isSameFile(source, target)) {
+            return;
+        }
+        // Stage the copy beside the target, so that readers never observe a partial or missing file.
+        // A shared inode is safe here, since setContent replaces a file rather than writing into it.
+        final Path staged = target.resolveSibling("." + target.getFileName() + "." + randomUUID());
+        try {
+            try {
+                linkFile(staged, source);
+            } catch (final FileSystemException | UnsupportedOperationException ex) {
+                LOGGER.debug("Unable to link {}, copying content instead: {}", source, ex.getMessage());
+                transfer(source, staged, MAX_TRANSFER_SIZE);
+            }
+            move(staged, target, ATOMIC_MOVE);
+        } finally {
+            deleteIfExists(staged);
+        }
+    }
+
+    /**
+     * Copy a file with {@link FileChannel#transferTo}
+     * @param source the existing file
+     * @param target the new file, which must not exist
+     * @param maxTransferSize the most bytes to request in a single transfer
+     * @throws IOException if the content cannot be copied
+     */
+    static void transfer(final Path source, final Path target, final long maxTransferSize) throws IOException {
+        try (final FileChannel in = FileChannel.open(source, READ);
+                final FileChannel out = FileChannel.open(target, CREATE_NEW, WRITE)) {
+            transfer(in, out, in.size(), maxTransferSize);
+        }
+    }
+
+    /**
+     * Copy a number of bytes between channels with {@link FileChannel#transferTo}
+     * @param in the source channel
+     * @param out the target channel
+     * @param size the number of bytes to copy
+     * @param maxTransferSize the most bytes to request in a single transfer
+     * @throws IOException if the content cannot be copied, or the source ends early
+     */
+    static void transfer(final FileChannel in, final FileChannel out, final long size, final long maxTransferSize)
+            throws IOException {
+        long position = 0L;
+        while (position < size) {
+            final long transferred = in.transferTo(position, Math.min(size - position, maxTransferSize), out);
+            if (transferred <= 0L) {
+                // The source shrank while it was being copied
+                throw new IOException("Source ended after " + position + " of " + size + " bytes");
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * Get the directory of a partition
+     * @param partition the partition
+     * @return the directory, if the partition is defined
+     */
+    Optional<File> getPartitionDirectory(final String partition) {
+        return ofNullable(partitions.get(partition)).map(File::new);
+    }
+
     private Optional<File> getFileFromIdentifier(final String partition, final IRI identifier) {
         return ofNullable(identifier).map(IRI::getIRIString).map(URI::create).map(URI::getSchemeSpecificPart)
             .filter(x -> partitions.containsKey(partition)).map(x -> new File(partitions.get(partition), x));
@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary;
+
+/**
+ * Priority classes for scheduled binary I/O.
+ *
+ * @author acoburn
+ */
+public enum IOPriority {
+
+    /** User-facing requests, such as reading content. */
+    INTERACTIVE(8),
+
+    /** Bulk ingest, such as writing content. */
+    INGEST(2),
+
+    /** Background work, such as fixity checks. */
+    BACKGROUND(1);
+
+    private final int weight;
+
+    IOPriority(final int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * Get the default scheduling weight of this class
+     * @return the relative share of I/O this class receives under contention
+     */
+    public int getWeight() {
+        return weight;
+    }
+}
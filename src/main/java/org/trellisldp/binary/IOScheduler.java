@@ -0,0 +1,366 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary;
+
+import static java.lang.System.nanoTime;
+import static java.util.Objects.requireNonNull;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.binary.IOPriority.INTERACTIVE;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.trellisldp.api.RuntimeRepositoryException;
+
+/**
+ * An I/O scheduler for a single partition.
+ *
+ * <p>The scheduler admits at most a fixed number of concurrent operations, and each
+ * {@link IOPriority} class may hold at most its own limit of those permits. By default,
+ * the non-interactive classes leave one permit free for {@link IOPriority#INTERACTIVE}
+ * work, so a batch job cannot take over an idle partition. When operations are waiting,
+ * permits are granted across the classes by stride scheduling, so that each class receives
+ * a share of the I/O in proportion to its weight and no class with waiting work is starved.</p>
+ *
+ * <p>Shares are measured in bytes rather than operations. An operation reports the bytes it
+ * moved when it releases its permit, and a permit granted from the queue advances its class
+ * by one stride for each {@link #QUANTUM} of those bytes, so a large transfer counts for more
+ * than a small one.</p>
+ *
+ * <p>Permits are held per thread: a thread that already holds a permit may acquire again
+ * without waiting, for instance to read the stream it is writing from. A permit must be
+ * released by the thread that acquired it.</p>
+ *
+ * @author acoburn
+ */
+public class IOScheduler {
+
+    /**
+     * The number of bytes charged as a single unit of I/O.
+     */
+    public static final int QUANTUM = 64 * 1024;
+
+    private static final long STRIDE = 1L << 20;
+
+    private static final Logger LOGGER = getLogger(IOScheduler.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ThreadLocal<Hold> holds = new ThreadLocal<>();
+    private final Map<IOPriority, Deque<Waiter>> queues = new EnumMap<>(IOPriority.class);
+    private final long[] strides = new long[IOPriority.values().length];
+    private final long[] passes = new long[IOPriority.values().length];
+    private final int[] limits = new int[IOPriority.values().length];
+    private final int[] classActive = new int[IOPriority.values().length];
+    private final long[] granted = new long[IOPriority.values().length];
+    private final long[] waitTimes = new long[IOPriority.values().length];
+    private final int concurrency;
+    private long virtualTime;
+    private int active;
+
+    /**
+     * Create an I/O scheduler with the default class weights and limits
+     * @param concurrency the maximum number of concurrent operations
+     */
+    public IOScheduler(final int concurrency) {
+        this(concurrency, new EnumMap<>(IOPriority.class));
+    }
+
+    /**
+     * Create an I/O scheduler with the default class limits
+     * @param concurrency the maximum number of concurrent operations
+     * @param weights the weights of each priority class, where a class is absent the default weight is used
+     */
+    public IOScheduler(final int concurrency, final Map<IOPriority, Integer> weights) {
+        this(concurrency, weights, new EnumMap<>(IOPriority.class));
+    }
+
+    /**
+     * Create an I/O scheduler
+     * @param concurrency the maximum number of concurrent operations
+     * @param weights the weights of each priority class, where a class is absent the default weight is used
+     * @param limits the most permits each priority class may hold at once, where a class is absent the
+     *               interactive class may hold every permit and other classes all but one
+     */
+    public IOScheduler(final int concurrency, final Map<IOPriority, Integer> weights,
+            final Map<IOPriority, Integer> limits) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        for (final IOPriority priority : IOPriority.values()) {
+            final int weight = weights.getOrDefault(priority, priority.getWeight());
+            if (weight < 1) {
+                throw new IllegalArgumentException("Weight must be positive for " + priority + ": " + weight);
+            }
+            final int limit = limits.getOrDefault(priority,
+                    priority == INTERACTIVE ? concurrency : Math.max(1, concurrency - 1));
+            if (limit < 1 || limit > concurrency) {
+                throw new IllegalArgumentException("Limit must be between 1 and " + concurrency + " for "
+                        + priority + ": " + limit);
+            }
+            strides[priority.ordinal()] = STRIDE / weight;
+            this.limits[priority.ordinal()] = limit;
+            queues.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Wait for a permit to perform an I/O operation
+     *
+     * <p>Every call must be paired with a call to {@link #release} on the same thread. A thread that
+     * already holds a permit is not made to wait for another.</p>
+     *
+     * @param priority the priority class of the operation
+     */
+    public void acquire(final IOPriority priority) {
+        requireNonNull(priority, "Priority may not be null!");
+        final Hold hold = holds.get();
+        if (hold != null) {
+            hold.count++;
+            return;
+        }
+        final boolean queued;
+        lock.lock();
+        try {
+            queued = active >= concurrency || classActive[priority.ordinal()] >= limits[priority.ordinal()];
+            if (queued) {
+                await(priority);
+            } else {
+                // Any queued operations are waiting on their class limit, so this one may go first
+                grant(priority);
+            }
+        } finally {
+            lock.unlock();
+        }
+        holds.set(new Hold(priority, queued));
+    }
+
+    /**
+     * Return a permit, after an I/O operation of at most one quantum has completed
+     */
+    public void release() {
+        release(0L);
+    }
+
+    /**
+     * Return a permit, after an I/O operation has completed
+     * @param bytes the number of bytes the operation read or wrote
+     */
+    public void release(final long bytes) {
+        final Hold hold = holds.get();
+        if (hold == null) {
+            throw new IllegalStateException("No I/O permit held by this thread");
+        }
+        hold.bytes += Math.max(0L, bytes);
+        if (--hold.count > 0) {
+            return;
+        }
+        holds.remove();
+        lock.lock();
+        try {
+            if (hold.queued) {
+                // The first quantum was charged when the permit was granted
+                final long quanta = Math.max(1L, (hold.bytes + QUANTUM - 1) / QUANTUM);
+                passes[hold.priority.ordinal()] += strides[hold.priority.ordinal()] * (quanta - 1);
+            }
+            active--;
+            classActive[hold.priority.ordinal()]--;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of operations waiting in a priority class
+     * @param priority the priority class
+     * @return the queue depth
+     */
+    public int getQueueDepth(final IOPriority priority) {
+        lock.lock();
+        try {
+            return queues.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of operations waiting in all priority classes
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queues.values().stream().mapToInt(Deque::size).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of operations holding a permit
+     * @return the number of active operations
+     */
+    public int getActive() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of operations in a priority class holding a permit
+     * @param priority the priority class
+     * @return the number of active operations
+     */
+    public int getActive(final IOPriority priority) {
+        lock.lock();
+        try {
+            return classActive[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the maximum number of concurrent operations
+     * @return the concurrency limit
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Get the most permits a priority class may hold at once
+     * @param priority the priority class
+     * @return the class limit
+     */
+    public int getLimit(final IOPriority priority) {
+        return limits[priority.ordinal()];
+    }
+
+    /**
+     * Get the number of permits granted to a priority class
+     * @param priority the priority class
+     * @return the number of permits granted
+     */
+    public long getGranted(final IOPriority priority) {
+        lock.lock();
+        try {
+            return granted[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the total time operations in a priority class have spent waiting for a permit
+     * @param priority the priority class
+     * @return the cumulative wait time, in nanoseconds
+     */
+    public long getWaitTime(final IOPriority priority) {
+        lock.lock();
+        try {
+            return waitTimes[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void await(final IOPriority priority) {
+        final Deque<Waiter> queue = queues.get(priority);
+        if (queue.isEmpty()) {
+            // A class returning from idle may not claim the share it did not use
+            passes[priority.ordinal()] = Math.max(passes[priority.ordinal()], virtualTime);
+        }
+        final Waiter waiter = new Waiter(lock.newCondition());
+        queue.addLast(waiter);
+        LOGGER.debug("Queued {} I/O operation behind {} active operations", priority, active);
+        try {
+            while (!waiter.granted) {
+                waiter.condition.await();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (!waiter.granted) {
+                queue.remove(waiter);
+                throw new RuntimeRepositoryException("Interrupted while waiting for " + priority + " I/O");
+            }
+        }
+    }
+
+    private void grant(final IOPriority priority) {
+        active++;
+        classActive[priority.ordinal()]++;
+        granted[priority.ordinal()]++;
+    }
+
+    private void dispatch() {
+        while (active < concurrency) {
+            IOPriority next = null;
+            for (final IOPriority priority : IOPriority.values()) {
+                if (!queues.get(priority).isEmpty() && classActive[priority.ordinal()] < limits[priority.ordinal()]
+                        && (next == null || passes[priority.ordinal()] < passes[next.ordinal()])) {
+                    next = priority;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            final Waiter waiter = queues.get(next).removeFirst();
+            virtualTime = passes[next.ordinal()];
+            passes[next.ordinal()] += strides[next.ordinal()];
+            waitTimes[next.ordinal()] += nanoTime() - waiter.enqueued;
+            grant(next);
+            waiter.granted = true;
+            waiter.condition.signal();
+        }
+    }
+
+    /**
+     * The permit held by a thread.
+     */
+    private static final class Hold {
+        private final IOPriority priority;
+        private final boolean queued;
+        private int count = 1;
+        private long bytes;
+
+        Hold(final IOPriority priority, final boolean queued) {
+            this.priority = priority;
+            this.queued = queued;
+        }
+    }
+
+    /**
+     * An operation waiting for a permit.
+     */
+    private static final class Waiter {
+        private final Condition condition;
+        private final long enqueued = nanoTime();
+        private boolean granted;
+
+        Waiter(final Condition condition) {
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary;
+
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Objects.isNull;
+import static java.util.Optional.ofNullable;
+import static org.trellisldp.binary.IOPriority.INGEST;
+import static org.trellisldp.binary.IOPriority.INTERACTIVE;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.trellisldp.api.BinaryService;
+import org.trellisldp.api.BinaryService.MultipartUpload;
+import org.trellisldp.api.RuntimeRepositoryException;
+
+/**
+ * A Binary Resolver that schedules the I/O of another resolver.
+ *
+ * <p>Each operation on a partition with an {@link IOScheduler} waits for a permit from that
+ * scheduler. By default, reads and existence checks are {@link IOPriority#INTERACTIVE} and writes
+ * are {@link IOPriority#INGEST}; {@link #withPriority} gives a view in which every operation uses
+ * a single class, such as {@link IOPriority#BACKGROUND} for fixity checks. Partitions without a
+ * scheduler are not limited.</p>
+ *
+ * <p>Content is scheduled one {@link IOScheduler#QUANTUM} at a time, and each permit is charged
+ * for the bytes it covered. A content stream takes a permit to fill its buffer, rather than for
+ * its lifetime, so a long consumer yields to other classes between quanta. A write holds a permit
+ * while the wrapped resolver writes each quantum, but not while it waits for the client to send
+ * the next one. Permits are held per thread, so writing content read from the same partition,
+ * as in a copy, does not wait on itself.</p>
+ *
+ * <p>Only I/O on the calling thread is scheduled. A {@link ChunkedFileResolver} that reads ahead
+ * does so on its own threads, outside any permit; configure it without read-ahead for its reads
+ * to be limited by the scheduler.</p>
+ *
+ * @author acoburn
+ */
+public class ScheduledResolver implements BinaryService.Resolver {
+
+    private final BinaryService.Resolver resolver;
+    private final Map<String, IOScheduler> schedulers;
+    private final IOPriority priority;
+
+    /**
+     * Create a scheduled Binary Resolver
+     * @param resolver the resolver to schedule
+     * @param schedulers a mapping of partitions to I/O schedulers
+     */
+    public ScheduledResolver(final BinaryService.Resolver resolver, final Map<String, IOScheduler> schedulers) {
+        this(resolver, unmodifiableMap(schedulers), null);
+    }
+
+    private ScheduledResolver(final BinaryService.Resolver resolver, final Map<String, IOScheduler> schedulers,
+            final IOPriority priority) {
+        this.resolver = resolver;
+        this.schedulers = schedulers;
+        this.priority = priority;
+    }
+
+    /**
+     * Get a view of this resolver in which all operations use a single priority class
+     * @param priority the priority class
+     * @return a resolver sharing the schedulers of this resolver
+     */
+    public ScheduledResolver withPriority(final IOPriority priority) {
+        return new ScheduledResolver(resolver, schedulers, priority);
+    }
+
+    /**
+     * Get the I/O scheduler for a partition
+     * @param partition the partition
+     * @return the scheduler, if one is defined
+     */
+    public Optional<IOScheduler> getScheduler(final String partition) {
+        return ofNullable(schedulers.get(partition));
+    }
+
+    @Override
+    public List<String> getUriSchemes() {
+        return resolver.getUriSchemes();
+    }
+
+    @Override
+    public Boolean exists(final String partition, final IRI identifier) {
+        return schedule(partition, INTERACTIVE, () -> resolver.exists(partition, identifier));
+    }
+
+    @Override
+    public Optional<InputStream> getContent(final String partition, final IRI identifier) {
+        final IOScheduler scheduler = schedulers.get(partition);
+        if (isNull(scheduler)) {
+            return resolver.getContent(partition, identifier);
+        }
+        final IOPriority readPriority = getPriority(INTERACTIVE);
+        return schedule(partition, INTERACTIVE, () -> resolver.getContent(partition, identifier))
+            .map(stream -> new ScheduledInputStream(stream, scheduler, readPriority));
+    }
+
+    @Override
+    public void setContent(final String partition, final IRI identifier, final InputStream stream,
+            final Map<String, String> metadata) {
+        final IOScheduler scheduler = schedulers.get(partition);
+        if (isNull(scheduler)) {
+            resolver.setContent(partition, identifier, stream, metadata);
+            return;
+        }
+        final ScheduledUploadStream upload = new ScheduledUploadStream(stream, scheduler, getPriority(INGEST));
+        upload.begin();
+        try {
+            resolver.setContent(partition, identifier, upload, metadata);
+        } finally {
+            upload.end();
+        }
+    }
+
+    @Override
+    public void purgeContent(final String partition, final IRI identifier) {
+        schedule(partition, INTERACTIVE, () -> {
+            resolver.purgeContent(partition, identifier);
+            return null;
+        });
+    }
+
+    @Override
+    public Boolean supportsMultipartUpload() {
+        return resolver.supportsMultipartUpload();
+    }
+
+    @Override
+    public Boolean uploadSessionExists(final String identifier) {
+        return resolver.uploadSessionExists(identifier);
+    }
+
+    @Override
+    public String initiateUpload(final String partition, final IRI identifier, final String mimeType) {
+        return resolver.initiateUpload(partition, identifier, mimeType);
+    }
+
+    @Override
+    public String uploadPart(final String identifier, final Integer partNumber, final InputStream content) {
+        return resolver.uploadPart(identifier, partNumber, content);
+    }
+
+    @Override
+    public MultipartUpload completeUpload(final String identifier, final Map<Integer, String> partDigests) {
+        return resolver.completeUpload(identifier, partDigests);
+    }
+
+    @Override
+    public void abortUpload(final String identifier) {
+        resolver.abortUpload(identifier);
+    }
+
+    @Override
+    public Stream<Map.Entry<Integer, String>> listParts(final String identifier) {
+        return resolver.listParts(identifier);
+    }
+
+    private IOPriority getPriority(final IOPriority defaultPriority) {
+        return ofNullable(priority).orElse(defaultPriority);
+    }
+
+    private <T> T schedule(final String partition, final IOPriority defaultPriority, final Supplier<T> operation) {
+        final IOScheduler scheduler = schedulers.get(partition);
+        if (isNull(scheduler)) {
+            return operation.get();
+        }
+        scheduler.acquire(getPriority(defaultPriority));
+        try {
+            return operation.get();
+        } finally {
+            scheduler.release();
+        }
+    }
+
+    private static void acquire(final IOScheduler scheduler, final IOPriority priority) throws IOException {
+        try {
+            scheduler.acquire(priority);
+        } catch (final RuntimeRepositoryException ex) {
+            if (Thread.currentThread().isInterrupted()) {
+                final InterruptedIOException interrupted = new InterruptedIOException(ex.getMessage());
+                interrupted.initCause(ex);
+                throw interrupted;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * A content stream that schedules its reads one quantum at a time.
+     */
+    static final class ScheduledInputStream extends FilterInputStream {
+        private final IOScheduler scheduler;
+        private final IOPriority priority;
+        private final byte[] buffer = new byte[IOScheduler.QUANTUM];
+        private int position;
+        private int length;
+
+        ScheduledInputStream(final InputStream stream, final IOScheduler scheduler, final IOPriority priority) {
+            super(stream);
+            this.scheduler = scheduler;
+            this.priority = priority;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= length && !fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] target, final int offset, final int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                if (count >= buffer.length) {
+                    // Large reads bypass the buffer, and are charged for what they read
+                    return scheduledRead(target, offset, count);
+                }
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            final int copied = Math.min(count, length - position);
+            System.arraycopy(buffer, position, target, offset, copied);
+            position += copied;
+            return copied;
+        }
+
+        @Override
+        public long skip(final long count) throws IOException {
+            if (count <= 0L) {
+                return 0L;
+            }
+            if (position < length) {
+                final int skipped = (int) Math.min(count, length - position);
+                position += skipped;
+                return skipped;
+            }
+            acquire(scheduler, priority);
+            try {
+                return super.skip(count);
+            } finally {
+                scheduler.release();
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return length - position + super.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(final int limit) {
+            // Not supported
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("Mark and reset are not supported");
+        }
+
+        private boolean fill() throws IOException {
+            final int read = scheduledRead(buffer, 0, buffer.length);
+            position = 0;
+            length = Math.max(read, 0);
+            return read > 0;
+        }
+
+        private int scheduledRead(final byte[] target, final int offset, final int count) throws IOException {
+            acquire(scheduler, priority);
+            int read = 0;
+            try {
+                read = super.read(target, offset, count);
+                return read;
+            } finally {
+                scheduler.release(read);
+            }
+        }
+    }
+
+    /**
+     * An upload stream that holds a permit while the wrapped resolver writes each quantum.
+     *
+     * <p>The permit is released before the client stream is read, and taken again once a
+     * quantum has arrived, so a slow client does not hold a permit.</p>
+     */
+    static final class ScheduledUploadStream extends FilterInputStream {
+        private final IOScheduler scheduler;
+        private final IOPriority priority;
+        private final byte[] buffer = new byte[IOScheduler.QUANTUM];
+        private int position;
+        private int length;
+        private boolean eof;
+        private boolean held;
+
+        ScheduledUploadStream(final InputStream stream, final IOScheduler scheduler, final IOPriority priority) {
+            super(stream);
+            this.scheduler = scheduler;
+            this.priority = priority;
+        }
+
+        /**
+         * Take a permit for the work the resolver does before it reads any content
+         */
+        void begin() {
+            scheduler.acquire(priority);
+            held = true;
+        }
+
+        /**
+         * Return any permit still held, once the resolver has finished
+         */
+        void end() {
+            if (held) {
+                held = false;
+                scheduler.release(length);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= length && !fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] target, final int offset, final int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (position >= length && !fill()) {
+                return -1;
+            }
+            final int copied = Math.min(count, length - position);
+            System.arraycopy(buffer, position, target, offset, copied);
+            position += copied;
+            return copied;
+        }
+
+        @Override
+        public long skip(final long count) throws IOException {
+            if (count <= 0L || position >= length && !fill()) {
+                return 0L;
+            }
+            final int skipped = (int) Math.min(count, length - position);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return length - position;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(final int limit) {
+            // Not supported
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("Mark and reset are not supported");
+        }
+
+        private boolean fill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            // The quantum already handed to the resolver has been written
+            end();
+            position = 0;
+            length = 0;
+            while (length < buffer.length) {
+                final int read = super.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    eof = true;
+                    break;
+                }
+                length += read;
+            }
+            // Hold a permit for writing this quantum, and for finishing the write at the end of the content
+            acquire(scheduler, priority);
+            held = true;
+            return length > 0;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.Duration.ZERO;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.RDF;
+import org.apache.commons.rdf.simple.SimpleRDF;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class ChunkedFileResolverTest {
+
+    private final static String testDoc = "test.txt";
+
+    private final static String partition = "partition";
+
+    private final static String chunked = "chunked";
+
+    private final static String other = "other";
+
+    private final static RDF rdf = new SimpleRDF();
+
+    private final static String directory = new File(FileResolver.class.getResource("/" + testDoc).getPath())
+        .getParent();
+
+    private final static File chunkedDirectory = new File(directory, chunked);
+
+    private final static File otherDirectory = new File(directory, other);
+
+    private final static File chunkData = new File(new File(chunkedDirectory, ".chunks"), "data");
+
+    private final static File chunkManifests = new File(new File(chunkedDirectory, ".chunks"), "manifests");
+
+    private final static File chunkStaging = new File(new File(chunkedDirectory, ".chunks"), "staging");
+
+    private final static Map<String, String> partitions = new HashMap<>();
+
+    @Mock
+    private InputStream mockInputStream;
+
+    @BeforeEach
+    public void setUp() {
+        initMocks(this);
+        partitions.clear();
+        partitions.put(partition, directory);
+        partitions.put(chunked, chunkedDirectory.getAbsolutePath());
+        partitions.put(other, otherDirectory.getAbsolutePath());
+    }
+
+    @Test
+    public void testPlainFileContent() {
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            final IRI file = rdf.createIRI("file:" + testDoc);
+            assertTrue(resolver.exists(partition, file));
+            assertEquals("A test document.\n",
+                    resolver.getContent(partition, file).map(this::uncheckedToString).get());
+        }
+    }
+
+    @Test
+    public void testPlainFileWithManifestHeader() throws IOException {
+        final String contents = "trellis-chunks 1\n../../" + testDoc + "\n";
+        final String filename = randomFilename();
+        chunkedDirectory.mkdirs();
+        Files.write(new File(chunkedDirectory, filename).toPath(), contents.getBytes(UTF_8));
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            final IRI fileIRI = rdf.createIRI("file:" + filename);
+            assertEquals(contents, resolver.getContent(chunked, fileIRI).map(this::uncheckedToString).get());
+        }
+    }
+
+    @Test
+    public void testInvalidManifest() throws IOException {
+        final List<File> manifests = new ArrayList<>();
+        for (final String reference : asList("../../" + testDoc, "ab", sha256Hex("x").toUpperCase())) {
+            manifests.add(writeManifest(asList("trellis-chunks 1", reference)));
+        }
+        manifests.add(writeManifest(asList(sha256Hex("x"))));
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            for (final File manifest : manifests) {
+                final IRI fileIRI = rdf.createIRI("file:" + manifest.getName());
+                assertTrue(resolver.exists(chunked, fileIRI));
+                assertThrows(UncheckedIOException.class, () -> resolver.getContent(chunked, fileIRI));
+            }
+            // An unreadable manifest hides which chunks are in use, so nothing may be collected
+            assertThrows(UncheckedIOException.class, () -> resolver.collectGarbage(chunked));
+            final IRI fileIRI = rdf.createIRI("file:" + manifests.get(0).getName());
+            resolver.purgeContent(chunked, fileIRI);
+            assertFalse(resolver.exists(chunked, fileIRI));
+        } finally {
+            manifests.forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testSetFileContent() {
+        final String contents = "A new chunked file";
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, fileIRI, new ByteArrayInputStream(contents.getBytes(UTF_8)));
+            assertTrue(resolver.exists(chunked, fileIRI));
+            assertEquals(contents, resolver.getContent(chunked, fileIRI).map(this::uncheckedToString).get());
+        }
+    }
+
+    @Test
+    public void testReplacePlainFileContent() throws IOException {
+        final String filename = randomFilename();
+        final File plain = new File(chunkedDirectory, filename);
+        chunkedDirectory.mkdirs();
+        Files.write(plain.toPath(), "Plain content".getBytes(UTF_8));
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            final IRI fileIRI = rdf.createIRI("file:" + filename);
+            resolver.setContent(chunked, fileIRI, new ByteArrayInputStream("Chunked content".getBytes(UTF_8)));
+            assertFalse(plain.exists());
+            assertEquals("Chunked content", resolver.getContent(chunked, fileIRI).map(this::uncheckedToString).get());
+        }
+    }
+
+    @Test
+    public void testEmptyFileContent() {
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, fileIRI, new ByteArrayInputStream(new byte[0]));
+            assertTrue(resolver.exists(chunked, fileIRI));
+            assertEquals("", resolver.getContent(chunked, fileIRI).map(this::uncheckedToString).get());
+        }
+    }
+
+    @Test
+    public void testLargeFileContent() throws IOException {
+        final byte[] data = randomBytes(1, 200000);
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions, 512, 2048, 8192, 3)) {
+            final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, fileIRI, new ByteArrayInputStream(data));
+            try (final InputStream stream = resolver.getContent(chunked, fileIRI).get()) {
+                assertArrayEquals(data, IOUtils.toByteArray(stream));
+            }
+            try (final InputStream stream = resolver.getContent(chunked, fileIRI).get()) {
+                assertEquals(data[0] & 0xff, stream.read());
+                stream.close();
+                assertThrows(IOException.class, stream::read);
+            }
+        }
+    }
+
+    @Test
+    public void testDeduplication() throws IOException {
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions, 512, 2048, 8192, 3)) {
+            final byte[] original = randomBytes(2, 200000);
+            resolver.setContent(chunked, rdf.createIRI("file:" + randomFilename()),
+                    new ByteArrayInputStream(original));
+            final long before = countFiles(chunkData);
+
+            final byte[] edited = new byte[original.length + 100];
+            System.arraycopy(original, 0, edited, 0, 100000);
+            System.arraycopy(randomBytes(3, 100), 0, edited, 100000, 100);
+            System.arraycopy(original, 100000, edited, 100100, 100000);
+            final IRI editedIRI = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, editedIRI, new ByteArrayInputStream(edited));
+
+            assertTrue(countFiles(chunkData) - before <= 3L);
+            try (final InputStream stream = resolver.getContent(chunked, editedIRI).get()) {
+                assertArrayEquals(edited, IOUtils.toByteArray(stream));
+            }
+        }
+    }
+
+    @Test
+    public void testFilePurge() {
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, fileIRI, new ByteArrayInputStream("Some data".getBytes(UTF_8)));
+            assertTrue(resolver.exists(chunked, fileIRI));
+            resolver.purgeContent(chunked, fileIRI);
+            assertFalse(resolver.exists(chunked, fileIRI));
+        }
+    }
+
+    @Test
+    public void testPurgeReleasesChunks() throws IOException {
+        final byte[] data = uniqueBytes(50000);
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions, 512, 2048, 8192, 3)) {
+            resolver.collectGarbage(chunked, ZERO);
+            final long before = countFiles(chunkData);
+            final IRI first = rdf.createIRI("file:" + randomFilename());
+            final IRI second = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, first, new ByteArrayInputStream(data));
+            final long stored = countFiles(chunkData);
+            assertTrue(stored > before);
+            resolver.setContent(chunked, second, new ByteArrayInputStream(data));
+            assertEquals(stored, countFiles(chunkData));
+
+            resolver.purgeContent(chunked, first);
+            assertEquals(0, resolver.collectGarbage(chunked, ZERO));
+            try (final InputStream stream = resolver.getContent(chunked, second).get()) {
+                assertArrayEquals(data, IOUtils.toByteArray(stream));
+            }
+            resolver.purgeContent(chunked, second);
+            assertEquals(stored, countFiles(chunkData));
+            assertEquals(stored - before, resolver.collectGarbage(chunked, ZERO));
+            assertEquals(before, countFiles(chunkData));
+        }
+    }
+
+    @Test
+    public void testReplaceReleasesChunks() throws IOException {
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions, 512, 2048, 8192, 3)) {
+            resolver.collectGarbage(chunked, ZERO);
+            final long before = countFiles(chunkData);
+            final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, fileIRI, new ByteArrayInputStream(uniqueBytes(50000)));
+            assertTrue(countFiles(chunkData) > before);
+            resolver.setContent(chunked, fileIRI, new ByteArrayInputStream(new byte[0]));
+            resolver.collectGarbage(chunked, ZERO);
+            assertEquals(before, countFiles(chunkData));
+            resolver.purgeContent(chunked, fileIRI);
+        }
+    }
+
+    @Test
+    public void testGracePeriod() throws IOException {
+        final byte[] data = uniqueBytes(50000);
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions, 512, 2048, 8192, 1)) {
+            resolver.collectGarbage(chunked, ZERO);
+            final long before = countFiles(chunkData);
+            final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, fileIRI, new ByteArrayInputStream(data));
+            final long stored = countFiles(chunkData);
+            try (final InputStream stream = resolver.getContent(chunked, fileIRI).get()) {
+                assertEquals(data[0] & 0xff, stream.read());
+                resolver.purgeContent(chunked, fileIRI);
+                // The first sweep only condemns the chunks, so the open stream can finish
+                assertEquals(0, resolver.collectGarbage(chunked));
+                assertEquals(stored, countFiles(chunkData));
+                final byte[] rest = IOUtils.toByteArray(stream);
+                assertEquals(data.length - 1, rest.length);
+                assertArrayEquals(Arrays.copyOfRange(data, 1, data.length), rest);
+            }
+            assertEquals(stored - before, resolver.collectGarbage(chunked, ZERO));
+        }
+    }
+
+    @Test
+    public void testCollectGarbage() throws IOException {
+        final String hex = sha256Hex(randomFilename());
+        final File orphan = new File(new File(new File(chunkData, hex.substring(0, 2)), hex.substring(2, 4)), hex);
+        final File partial = new File(orphan.getParentFile(), "." + hex + ".tmp");
+        final File staged = new File(chunkStaging, randomFilename());
+        final File fresh = new File(chunkStaging, randomFilename());
+        orphan.getParentFile().mkdirs();
+        chunkStaging.mkdirs();
+        Files.write(orphan.toPath(), "Orphaned".getBytes(UTF_8));
+        Files.write(partial.toPath(), "Interrupted".getBytes(UTF_8));
+        // A manifest cut short by a crash, while it was being staged
+        Files.write(staged.toPath(), "trellis-chunks 1\nab".getBytes(UTF_8));
+        Files.write(fresh.toPath(), "trellis-chunks 1\n".getBytes(UTF_8));
+        final long stale = System.currentTimeMillis() - HOURS.toMillis(2L);
+        assertTrue(partial.setLastModified(stale));
+        assertTrue(staged.setLastModified(stale));
+
+        final byte[] data = uniqueBytes(20000);
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions, 512, 2048, 8192, 3)) {
+            final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, fileIRI, new ByteArrayInputStream(data));
+            assertTrue(resolver.collectGarbage(chunked, ZERO) >= 1);
+            assertFalse(orphan.exists());
+            assertFalse(partial.exists());
+            assertFalse(staged.exists());
+            assertTrue(fresh.exists());
+            try (final InputStream stream = resolver.getContent(chunked, fileIRI).get()) {
+                assertArrayEquals(data, IOUtils.toByteArray(stream));
+            }
+            assertEquals(0, resolver.collectGarbage("nonexistent"));
+            resolver.purgeContent(chunked, fileIRI);
+        } finally {
+            fresh.delete();
+        }
+    }
+
+    @Test
+    public void testPartitionAddedLater() {
+        final String later = "later";
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            partitions.put(later, new File(directory, later).getAbsolutePath());
+            final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(later, fileIRI, new ByteArrayInputStream("Later".getBytes(UTF_8)));
+            assertEquals("Later", resolver.getContent(later, fileIRI).map(this::uncheckedToString).get());
+            resolver.purgeContent(later, fileIRI);
+            assertTrue(resolver.collectGarbage(later, ZERO) > 0);
+        }
+    }
+
+    @Test
+    public void testCopyContent() throws IOException {
+        final byte[] data = uniqueBytes(50000);
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions, 512, 2048, 8192, 3)) {
+            resolver.collectGarbage(chunked, ZERO);
+            final long before = countFiles(chunkData);
+            final IRI source = rdf.createIRI("file:" + randomFilename());
+            final IRI target = rdf.createIRI("file:" + randomFilename());
+            final IRI remote = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, source, new ByteArrayInputStream(data));
+            final long stored = countFiles(chunkData);
+
+            resolver.copyContent(chunked, source, chunked, target);
+            assertEquals(stored, countFiles(chunkData));
+            resolver.copyContent(chunked, source, other, remote);
+            resolver.purgeContent(chunked, source);
+            assertFalse(resolver.exists(chunked, source));
+            try (final InputStream stream = resolver.getContent(chunked, target).get()) {
+                assertArrayEquals(data, IOUtils.toByteArray(stream));
+            }
+            resolver.purgeContent(chunked, target);
+            resolver.collectGarbage(chunked, ZERO);
+            assertEquals(before, countFiles(chunkData));
+            try (final InputStream stream = resolver.getContent(other, remote).get()) {
+                assertArrayEquals(data, IOUtils.toByteArray(stream));
+            }
+
+            // Plain content replaces the chunked content at the target
+            resolver.copyContent(partition, rdf.createIRI("file:" + testDoc), other, remote);
+            assertEquals("A test document.\n", resolver.getContent(other, remote).map(this::uncheckedToString).get());
+            resolver.purgeContent(other, remote);
+            assertTrue(resolver.collectGarbage(other, ZERO) > 0);
+        }
+    }
+
+    @Test
+    public void testMoveContent() throws IOException {
+        final byte[] data = uniqueBytes(50000);
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions, 512, 2048, 8192, 3)) {
+            resolver.collectGarbage(chunked, ZERO);
+            final long before = countFiles(chunkData);
+            final IRI source = rdf.createIRI("file:" + randomFilename());
+            final IRI target = rdf.createIRI("file:" + randomFilename());
+            final IRI remote = rdf.createIRI("file:" + randomFilename());
+            resolver.setContent(chunked, source, new ByteArrayInputStream(data));
+
+            resolver.moveContent(chunked, source, chunked, target);
+            assertFalse(resolver.exists(chunked, source));
+            assertEquals(0, resolver.collectGarbage(chunked, ZERO));
+            resolver.moveContent(chunked, target, other, remote);
+            assertFalse(resolver.exists(chunked, target));
+            resolver.collectGarbage(chunked, ZERO);
+            assertEquals(before, countFiles(chunkData));
+            try (final InputStream stream = resolver.getContent(other, remote).get()) {
+                assertArrayEquals(data, IOUtils.toByteArray(stream));
+            }
+            resolver.purgeContent(other, remote);
+            resolver.collectGarbage(other, ZERO);
+        }
+    }
+
+    @Test
+    public void testGetFileContentError() {
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+            assertThrows(UncheckedIOException.class, () -> resolver.getContent(chunked, fileIRI));
+        }
+    }
+
+    @Test
+    public void testSetFileContentError() throws IOException {
+        when(mockInputStream.read(any(byte[].class), anyInt(), anyInt())).thenThrow(new IOException("Expected"));
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+            assertThrows(UncheckedIOException.class, () -> resolver.setContent(chunked, fileIRI, mockInputStream));
+            assertFalse(resolver.exists(chunked, fileIRI));
+        }
+    }
+
+    @Test
+    public void testInvalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new ChunkedFileResolver(partitions, 1024, 512, 4096, 1));
+        assertThrows(IllegalArgumentException.class, () -> new ChunkedFileResolver(partitions, 512, 1024, 4096, -1));
+    }
+
+    @Test
+    public void testMultipart() {
+        try (final ChunkedFileResolver resolver = new ChunkedFileResolver(partitions)) {
+            assertFalse(resolver.supportsMultipartUpload());
+            assertThrows(UnsupportedOperationException.class, () -> resolver.initiateUpload(partition,
+                        rdf.createIRI("file:" + testDoc), "text/plain"));
+            assertThrows(UnsupportedOperationException.class, () -> resolver.completeUpload("test", emptyMap()));
+            assertThrows(UnsupportedOperationException.class, () -> resolver.abortUpload("test"));
+        }
+    }
+
+    private static long countFiles(final File dir) throws IOException {
+        if (!dir.exists()) {
+            return 0L;
+        }
+        try (final Stream<Path> files = Files.walk(dir.toPath())) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static File writeManifest(final List<String> lines) throws IOException {
+        final File manifest = new File(chunkManifests, randomFilename());
+        chunkManifests.mkdirs();
+        Files.write(manifest.toPath(), lines, UTF_8);
+        return manifest;
+    }
+
+    private static byte[] randomBytes(final long seed, final int length) {
+        final byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] uniqueBytes(final int length) {
+        final byte[] data = new byte[length];
+        new SecureRandom().nextBytes(data);
+        return data;
+    }
+
+    private String uncheckedToString(final InputStream is) {
+        try {
+            return IOUtils.toString(is, UTF_8);
+        } catch (final IOException ex) {
+            return null;
+        }
+    }
+
+    private static String randomFilename() {
+        final SecureRandom random = new SecureRandom();
+        final String filename = new BigInteger(50, random).toString(32);
+        return filename + ".json";
+    }
+}
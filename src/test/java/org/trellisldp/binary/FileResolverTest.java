@@ -14,7 +14,14 @@
 package org.trellisldp.binary;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.isSameFile;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.write;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Collections.emptyMap;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -29,9 +36,14 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.io.File;
 import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
 import java.security.SecureRandom;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.rdf.api.IRI;
@@ -110,6 +122,116 @@ public class FileResolverTest {
         assertEquals(contents, resolver.getContent(partition, fileIRI).map(this::uncheckedToString).get());
     }
 
+    @Test
+    public void testCopyFileContent() {
+        final String contents = "A copied file";
+        final FileResolver resolver = new FileResolver(partitions);
+        final String filename = randomFilename();
+        final String copyname = "copies/" + randomFilename();
+        final IRI fileIRI = rdf.createIRI("file:" + filename);
+        final IRI copyIRI = rdf.createIRI("file:" + copyname);
+        resolver.setContent(partition, fileIRI, new ByteArrayInputStream(contents.getBytes(UTF_8)));
+        resolver.copyContent(partition, fileIRI, partition, copyIRI);
+        assertTrue(resolver.exists(partition, fileIRI));
+        // Within a filesystem, the copy is a hard link to the same content
+        assertTrue(isSameFile(new File(directory, filename).toPath(), new File(directory, copyname).toPath()));
+        assertEquals(contents, resolver.getContent(partition, copyIRI).map(this::uncheckedToString).get());
+
+        resolver.setContent(partition, fileIRI, new ByteArrayInputStream("Changed".getBytes(UTF_8)));
+        assertEquals("Changed", resolver.getContent(partition, fileIRI).map(this::uncheckedToString).get());
+        assertEquals(contents, resolver.getContent(partition, copyIRI).map(this::uncheckedToString).get());
+
+        resolver.purgeContent(partition, fileIRI);
+        assertFalse(resolver.exists(partition, fileIRI));
+        assertEquals(contents, resolver.getContent(partition, copyIRI).map(this::uncheckedToString).get());
+    }
+
+    @Test
+    public void testCopyFileContentReplace() {
+        final FileResolver resolver = new FileResolver(partitions);
+        final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+        final IRI copyIRI = rdf.createIRI("file:" + randomFilename());
+        resolver.setContent(partition, fileIRI, new ByteArrayInputStream("Source".getBytes(UTF_8)));
+        resolver.setContent(partition, copyIRI, new ByteArrayInputStream("Target".getBytes(UTF_8)));
+        resolver.copyContent(partition, fileIRI, partition, copyIRI);
+        assertEquals("Source", resolver.getContent(partition, copyIRI).map(this::uncheckedToString).get());
+        resolver.copyContent(partition, copyIRI, partition, copyIRI);
+        assertEquals("Source", resolver.getContent(partition, copyIRI).map(this::uncheckedToString).get());
+    }
+
+    @Test
+    public void testMoveFileContent() {
+        final String contents = "A moved file";
+        partitions.put("other", new File(directory, "other").getAbsolutePath());
+        final FileResolver resolver = new FileResolver(partitions);
+        final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+        final IRI moveIRI = rdf.createIRI("file:moved/" + randomFilename());
+        resolver.setContent(partition, fileIRI, new ByteArrayInputStream(contents.getBytes(UTF_8)));
+        resolver.moveContent(partition, fileIRI, "other", moveIRI);
+        assertFalse(resolver.exists(partition, fileIRI));
+        assertFalse(resolver.exists(partition, moveIRI));
+        assertEquals(contents, resolver.getContent("other", moveIRI).map(this::uncheckedToString).get());
+    }
+
+    @Test
+    public void testCopyFileContentAcrossFilesystems() throws IOException {
+        final String contents = "A file copied across filesystems";
+        final FileResolver resolver = new CrossFilesystemResolver(partitions);
+        final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+        final IRI copyIRI = rdf.createIRI("file:copies/" + randomFilename());
+        resolver.setContent(partition, fileIRI, new ByteArrayInputStream(contents.getBytes(UTF_8)));
+        resolver.copyContent(partition, fileIRI, partition, copyIRI);
+        assertEquals(contents, resolver.getContent(partition, fileIRI).map(this::uncheckedToString).get());
+        assertEquals(contents, resolver.getContent(partition, copyIRI).map(this::uncheckedToString).get());
+        assertFalse(isSameFile(new File(directory, fileIRI.getIRIString().substring(5)).toPath(),
+                    new File(directory, copyIRI.getIRIString().substring(5)).toPath()));
+    }
+
+    @Test
+    public void testMoveFileContentAcrossFilesystems() {
+        final String contents = "A file moved across filesystems";
+        partitions.put("other", new File(directory, "other").getAbsolutePath());
+        final FileResolver resolver = new CrossFilesystemResolver(partitions);
+        final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+        final IRI moveIRI = rdf.createIRI("file:moved/" + randomFilename());
+        resolver.setContent(partition, fileIRI, new ByteArrayInputStream(contents.getBytes(UTF_8)));
+        resolver.moveContent(partition, fileIRI, "other", moveIRI);
+        assertFalse(resolver.exists(partition, fileIRI));
+        assertEquals(contents, resolver.getContent("other", moveIRI).map(this::uncheckedToString).get());
+    }
+
+    @Test
+    public void testTransferInSeveralCalls() throws IOException {
+        final byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        final Path source = new File(directory, randomFilename()).toPath();
+        final Path target = new File(directory, randomFilename()).toPath();
+        write(source, data);
+        FileResolver.transfer(source, target, 4096L);
+        assertArrayEquals(data, readAllBytes(target));
+    }
+
+    @Test
+    public void testTransferFromShrunkSource() throws IOException {
+        final Path source = new File(directory, randomFilename()).toPath();
+        final Path target = new File(directory, randomFilename()).toPath();
+        write(source, new byte[1000]);
+        try (final FileChannel in = FileChannel.open(source, READ);
+                final FileChannel out = FileChannel.open(target, CREATE_NEW, WRITE)) {
+            assertThrows(IOException.class, () -> FileResolver.transfer(in, out, 2000L, 4096L));
+        }
+    }
+
+    @Test
+    public void testCopyFileContentError() {
+        final FileResolver resolver = new FileResolver(partitions);
+        final IRI fileIRI = rdf.createIRI("file:" + randomFilename());
+        final IRI copyIRI = rdf.createIRI("file:" + randomFilename());
+        assertThrows(UncheckedIOException.class, () -> resolver.copyContent(partition, fileIRI, partition, copyIRI));
+        assertThrows(UncheckedIOException.class, () -> resolver.moveContent(partition, fileIRI, partition, copyIRI));
+        assertFalse(resolver.exists(partition, copyIRI));
+    }
+
     @Test
     public void testGetFileContentError() throws IOException {
         final Resolver resolver = new FileResolver(partitions);
@@ -176,6 +298,26 @@ public class FileResolverTest {
         assertThrows(UnsupportedOperationException.class, () -> resolver.uploadSessionExists("test-identifier"));
     }
 
+    /**
+     * A resolver that behaves as though every partition were on a different filesystem.
+     */
+    private static class CrossFilesystemResolver extends FileResolver {
+        CrossFilesystemResolver(final Map<String, String> partitions) {
+            super(partitions);
+        }
+
+        @Override
+        void renameFile(final Path source, final Path target) throws IOException {
+            throw new AtomicMoveNotSupportedException(source.toString(), target.toString(),
+                    "Invalid cross-device link");
+        }
+
+        @Override
+        void linkFile(final Path link, final Path existing) throws IOException {
+            throw new FileSystemException(link.toString(), existing.toString(), "Invalid cross-device link");
+        }
+    }
+
     private String uncheckedToString(final InputStream is) {
         try {
             return IOUtils.toString(is, UTF_8);
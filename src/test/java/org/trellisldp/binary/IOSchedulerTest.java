@@ -0,0 +1,215 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.binary.IOPriority.BACKGROUND;
+import static org.trellisldp.binary.IOPriority.INGEST;
+import static org.trellisldp.binary.IOPriority.INTERACTIVE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.trellisldp.api.RuntimeRepositoryException;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class IOSchedulerTest {
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        final IOScheduler scheduler = new IOScheduler(2);
+        scheduler.acquire(INTERACTIVE);
+        final Thread thread = new Thread(() -> scheduler.acquire(INGEST));
+        thread.start();
+        thread.join(5000L);
+        assertEquals(2, scheduler.getActive());
+        assertEquals(2, scheduler.getConcurrency());
+        assertEquals(1L, scheduler.getGranted(INTERACTIVE));
+        assertEquals(1L, scheduler.getGranted(INGEST));
+        assertEquals(1, scheduler.getActive(INGEST));
+        scheduler.release();
+        assertEquals(1, scheduler.getActive());
+        assertThrows(IllegalStateException.class, scheduler::release);
+    }
+
+    @Test
+    public void testReentrantAcquire() {
+        final IOScheduler scheduler = new IOScheduler(1);
+        scheduler.acquire(INGEST);
+        scheduler.acquire(INTERACTIVE);
+        assertEquals(1, scheduler.getActive());
+        assertEquals(1, scheduler.getActive(INGEST));
+        scheduler.release();
+        assertEquals(1, scheduler.getActive());
+        scheduler.release();
+        assertEquals(0, scheduler.getActive());
+    }
+
+    @Test
+    public void testBackgroundCannotFillPartition() throws Exception {
+        final IOScheduler scheduler = new IOScheduler(2);
+        assertEquals(2, scheduler.getLimit(INTERACTIVE));
+        assertEquals(1, scheduler.getLimit(BACKGROUND));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            final Thread thread = new Thread(() -> {
+                scheduler.acquire(BACKGROUND);
+                try {
+                    done.await();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                scheduler.release();
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        awaitQueueDepth(scheduler, 1);
+        assertEquals(1, scheduler.getActive(BACKGROUND));
+
+        scheduler.acquire(INTERACTIVE);
+        assertEquals(2, scheduler.getActive());
+        assertEquals(1, scheduler.getQueueDepth(BACKGROUND));
+        scheduler.release();
+
+        done.countDown();
+        for (final Thread thread : threads) {
+            thread.join(5000L);
+        }
+        assertEquals(0, scheduler.getActive());
+        assertEquals(2L, scheduler.getGranted(BACKGROUND));
+    }
+
+    @Test
+    public void testInvalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new IOScheduler(0));
+        assertThrows(IllegalArgumentException.class, () -> new IOScheduler(1, singletonMap(BACKGROUND, 0)));
+        assertThrows(IllegalArgumentException.class, () -> new IOScheduler(2, emptyMap(),
+                    singletonMap(INGEST, 3)));
+    }
+
+    @Test
+    public void testWeightedFairQueueing() throws Exception {
+        final IOScheduler scheduler = new IOScheduler(1);
+        final List<IOPriority> order = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = new ArrayList<>();
+
+        scheduler.acquire(INTERACTIVE);
+        for (final IOPriority priority : asList(BACKGROUND, BACKGROUND, BACKGROUND, INTERACTIVE, INTERACTIVE,
+                    INTERACTIVE)) {
+            final Thread thread = new Thread(() -> {
+                scheduler.acquire(priority);
+                order.add(priority);
+                scheduler.release();
+            });
+            thread.start();
+            threads.add(thread);
+            awaitQueueDepth(scheduler, threads.size());
+        }
+        assertEquals(3, scheduler.getQueueDepth(BACKGROUND));
+        assertEquals(3, scheduler.getQueueDepth(INTERACTIVE));
+        assertEquals(0, scheduler.getQueueDepth(INGEST));
+
+        scheduler.release();
+        for (final Thread thread : threads) {
+            thread.join(5000L);
+        }
+
+        assertEquals(asList(INTERACTIVE, BACKGROUND, INTERACTIVE, INTERACTIVE, BACKGROUND, BACKGROUND), order);
+        assertEquals(0, scheduler.getQueueDepth());
+        assertEquals(0, scheduler.getActive());
+        assertEquals(3L, scheduler.getGranted(BACKGROUND));
+        assertTrue(scheduler.getWaitTime(BACKGROUND) > 0L);
+    }
+
+    @Test
+    public void testChargeByBytes() throws Exception {
+        final Map<IOPriority, Integer> weights = new EnumMap<>(IOPriority.class);
+        weights.put(INTERACTIVE, 1);
+        weights.put(INGEST, 1);
+        final IOScheduler scheduler = new IOScheduler(1, weights);
+        final List<IOPriority> order = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = new ArrayList<>();
+
+        scheduler.acquire(INTERACTIVE);
+        for (final IOPriority priority : asList(INGEST, INGEST, INTERACTIVE, INTERACTIVE, INTERACTIVE,
+                    INTERACTIVE)) {
+            final Thread thread = new Thread(() -> {
+                scheduler.acquire(priority);
+                order.add(priority);
+                // Each ingest operation moves four quanta, and each interactive operation one
+                scheduler.release(priority == INGEST ? 4L * IOScheduler.QUANTUM : IOScheduler.QUANTUM);
+            });
+            thread.start();
+            threads.add(thread);
+            awaitQueueDepth(scheduler, threads.size());
+        }
+
+        scheduler.release();
+        for (final Thread thread : threads) {
+            thread.join(5000L);
+        }
+
+        assertEquals(asList(INTERACTIVE, INGEST, INTERACTIVE, INTERACTIVE, INTERACTIVE, INGEST), order);
+        assertEquals(0, scheduler.getActive());
+    }
+
+    @Test
+    public void testInterruptedWhileQueued() throws Exception {
+        final IOScheduler scheduler = new IOScheduler(1);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        scheduler.acquire(INGEST);
+
+        final Thread thread = new Thread(() -> {
+            try {
+                scheduler.acquire(BACKGROUND);
+            } catch (final RuntimeRepositoryException ex) {
+                errors.add(ex);
+            }
+        });
+        thread.start();
+        awaitQueueDepth(scheduler, 1);
+        thread.interrupt();
+        thread.join(5000L);
+
+        assertEquals(1, errors.size());
+        assertEquals(0, scheduler.getQueueDepth());
+        scheduler.release();
+        assertEquals(0, scheduler.getActive());
+    }
+
+    private static void awaitQueueDepth(final IOScheduler scheduler, final int depth) throws InterruptedException {
+        for (int i = 0; i < 500 && scheduler.getQueueDepth() < depth; ++i) {
+            Thread.sleep(10L);
+        }
+        assertEquals(depth, scheduler.getQueueDepth());
+    }
+}
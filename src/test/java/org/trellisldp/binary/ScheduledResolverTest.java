@@ -0,0 +1,326 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.binary;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.Duration.ofSeconds;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.trellisldp.binary.IOPriority.BACKGROUND;
+import static org.trellisldp.binary.IOPriority.INGEST;
+import static org.trellisldp.binary.IOPriority.INTERACTIVE;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.RDF;
+import org.apache.commons.rdf.simple.SimpleRDF;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.trellisldp.api.BinaryService.Resolver;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class ScheduledResolverTest {
+
+    private final static String partition = "partition";
+
+    private final static RDF rdf = new SimpleRDF();
+
+    private final static IRI identifier = rdf.createIRI("file:binary");
+
+    @Mock
+    private Resolver mockResolver;
+
+    private IOScheduler scheduler;
+
+    private ScheduledResolver resolver;
+
+    @BeforeEach
+    public void setUp() {
+        initMocks(this);
+        scheduler = new IOScheduler(2);
+        resolver = new ScheduledResolver(mockResolver, singletonMap(partition, scheduler));
+        when(mockResolver.getUriSchemes()).thenReturn(singletonList("file"));
+        when(mockResolver.exists(anyString(), any(IRI.class))).thenAnswer(inv -> scheduler.getActive() == 1);
+    }
+
+    @Test
+    public void testSchemes() {
+        assertEquals(singletonList("file"), resolver.getUriSchemes());
+        assertTrue(resolver.getScheduler(partition).isPresent());
+        assertFalse(resolver.getScheduler("other").isPresent());
+    }
+
+    @Test
+    public void testExists() {
+        assertTrue(resolver.exists(partition, identifier));
+        assertEquals(0, scheduler.getActive());
+        assertEquals(1L, scheduler.getGranted(INTERACTIVE));
+
+        assertFalse(resolver.exists("other", identifier));
+        assertEquals(1L, scheduler.getGranted(INTERACTIVE));
+    }
+
+    @Test
+    public void testGetContentSchedulesReads() throws IOException {
+        when(mockResolver.getContent(partition, identifier))
+            .thenReturn(of(new ByteArrayInputStream("data".getBytes(UTF_8))));
+        final InputStream stream = resolver.getContent(partition, identifier).get();
+        assertEquals(0, scheduler.getActive());
+        assertEquals(1L, scheduler.getGranted(INTERACTIVE));
+        assertEquals('d', stream.read());
+        assertEquals(2, stream.read(new byte[2]));
+        assertEquals(1L, stream.skip(1L));
+        assertEquals(-1, stream.read());
+        stream.close();
+        assertEquals(0, scheduler.getActive());
+        // One permit to open the stream, one to fill its buffer and one to reach the end
+        assertEquals(3L, scheduler.getGranted(INTERACTIVE));
+    }
+
+    @Test
+    public void testInterruptedRead() throws Exception {
+        final IOScheduler single = new IOScheduler(1);
+        final ScheduledResolver scheduled = new ScheduledResolver(mockResolver, singletonMap(partition, single));
+        when(mockResolver.getContent(partition, identifier))
+            .thenReturn(of(new ByteArrayInputStream("data".getBytes(UTF_8))));
+        final InputStream stream = scheduled.getContent(partition, identifier).get();
+
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> {
+            single.acquire(INGEST);
+            held.countDown();
+            try {
+                done.await();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                single.release();
+            }
+        });
+        holder.start();
+        held.await();
+
+        Thread.currentThread().interrupt();
+        assertThrows(InterruptedIOException.class, stream::read);
+        assertTrue(Thread.interrupted());
+        done.countDown();
+        holder.join(5000L);
+        assertEquals(0, single.getActive());
+        assertEquals('d', stream.read());
+    }
+
+    @Test
+    public void testCopyWithinPartition() {
+        final String directory = new File(FileResolver.class.getResource("/test.txt").getPath()).getParent();
+        final IOScheduler single = new IOScheduler(1);
+        final ScheduledResolver fileResolver = new ScheduledResolver(new FileResolver(singletonMap(partition,
+                        directory)), singletonMap(partition, single));
+        final IRI source = rdf.createIRI("file:test.txt");
+        final IRI target = rdf.createIRI("file:copies/scheduled.txt");
+
+        assertTimeoutPreemptively(ofSeconds(10L), () ->
+                fileResolver.setContent(partition, target, fileResolver.getContent(partition, source).get()));
+        assertEquals(0, single.getActive());
+        assertTrue(fileResolver.exists(partition, target));
+        assertTrue(single.getGranted(INGEST) > 0L);
+    }
+
+    @Test
+    public void testUploadWaitsWithoutPermit() throws Exception {
+        final String directory = new File(FileResolver.class.getResource("/test.txt").getPath()).getParent();
+        final IOScheduler single = new IOScheduler(1);
+        final ScheduledResolver fileResolver = new ScheduledResolver(new FileResolver(singletonMap(partition,
+                        directory)), singletonMap(partition, single));
+        final IRI target = rdf.createIRI("file:copies/uploaded.txt");
+        final PipedOutputStream client = new PipedOutputStream();
+        final PipedInputStream upload = new PipedInputStream(client);
+
+        final Thread writer = new Thread(() -> fileResolver.setContent(partition, target, upload));
+        writer.start();
+        for (int i = 0; i < 500 && (single.getGranted(INGEST) == 0L || single.getActive() > 0); ++i) {
+            Thread.sleep(10L);
+        }
+        // The writer is waiting for the client, so it holds no permit
+        assertEquals(1L, single.getGranted(INGEST));
+        assertEquals(0, single.getActive());
+        assertTrue(writer.isAlive());
+
+        client.write("Uploaded".getBytes(UTF_8));
+        client.close();
+        writer.join(5000L);
+        assertEquals(0, single.getActive());
+        assertEquals("Uploaded", fileResolver.getContent(partition, target).map(this::uncheckedToString).get());
+    }
+
+    @Test
+    public void testChunkedReadsWithoutReadAhead() throws Exception {
+        final File directory = new File(new File(FileResolver.class.getResource("/test.txt").getPath())
+                .getParentFile(), "scheduled-chunks");
+        final byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        final IOScheduler single = new IOScheduler(1);
+        try (final ChunkedFileResolver chunked = new ChunkedFileResolver(singletonMap(partition,
+                        directory.getAbsolutePath()), 512, 2048, 8192, 0)) {
+            final ScheduledResolver scheduled = new ScheduledResolver(chunked, singletonMap(partition, single));
+            scheduled.setContent(partition, identifier, new ByteArrayInputStream(data));
+            final InputStream stream = scheduled.getContent(partition, identifier).get();
+            // The first fill reads only the first chunk
+            assertEquals(data[0] & 0xff, stream.read());
+            assertEquals(stream.available(), stream.read(new byte[stream.available()]));
+
+            // Without read-ahead, later chunks are read only under a permit
+            single.acquire(INTERACTIVE);
+            final ExecutorService executor = newSingleThreadExecutor();
+            try {
+                final Future<Integer> read = executor.submit(() -> stream.read());
+                Thread.sleep(100L);
+                assertFalse(read.isDone());
+                deleteChunks(new File(directory, ".chunks"));
+                single.release();
+                final ExecutionException ex = assertThrows(ExecutionException.class, () -> read.get(5L, SECONDS));
+                assertTrue(ex.getCause() instanceof IOException);
+            } finally {
+                executor.shutdownNow();
+            }
+            scheduled.purgeContent(partition, identifier);
+        }
+    }
+
+    @Test
+    public void testGetContentMissing() {
+        when(mockResolver.getContent(partition, identifier)).thenReturn(empty());
+        assertFalse(resolver.getContent(partition, identifier).isPresent());
+        assertEquals(0, scheduler.getActive());
+
+        when(mockResolver.getContent(partition, identifier))
+            .thenThrow(new UncheckedIOException(new IOException("Expected error")));
+        assertThrows(UncheckedIOException.class, () -> resolver.getContent(partition, identifier));
+        assertEquals(0, scheduler.getActive());
+    }
+
+    @Test
+    public void testGetContentUnscheduled() {
+        final InputStream stream = new ByteArrayInputStream("data".getBytes(UTF_8));
+        when(mockResolver.getContent("other", identifier)).thenReturn(of(stream));
+        assertEquals(of(stream), resolver.getContent("other", identifier));
+        assertEquals(0L, scheduler.getGranted(INTERACTIVE));
+    }
+
+    @Test
+    public void testSetContent() {
+        final InputStream stream = new ByteArrayInputStream("data".getBytes(UTF_8));
+        resolver.setContent(partition, identifier, stream, emptyMap());
+        verify(mockResolver).setContent(eq(partition), eq(identifier), any(InputStream.class), eq(emptyMap()));
+        assertEquals(1L, scheduler.getGranted(INGEST));
+        assertEquals(0, scheduler.getActive());
+    }
+
+    @Test
+    public void testSetContentError() {
+        final InputStream stream = new ByteArrayInputStream("data".getBytes(UTF_8));
+        doAnswer(inv -> {
+            throw new UncheckedIOException(new IOException("Expected error"));
+        }).when(mockResolver).setContent(eq(partition), eq(identifier), any(InputStream.class), eq(emptyMap()));
+        assertThrows(UncheckedIOException.class, () -> resolver.setContent(partition, identifier, stream,
+                    emptyMap()));
+        assertEquals(0, scheduler.getActive());
+    }
+
+    @Test
+    public void testPurgeContent() {
+        resolver.purgeContent(partition, identifier);
+        verify(mockResolver).purgeContent(partition, identifier);
+        assertEquals(1L, scheduler.getGranted(INTERACTIVE));
+    }
+
+    @Test
+    public void testWithPriority() throws IOException {
+        when(mockResolver.getContent(partition, identifier))
+            .thenReturn(of(new ByteArrayInputStream("data".getBytes(UTF_8))));
+        final ScheduledResolver background = resolver.withPriority(BACKGROUND);
+        background.getContent(partition, identifier).get().read();
+        background.purgeContent(partition, identifier);
+        background.setContent(partition, identifier, new ByteArrayInputStream(new byte[0]), emptyMap());
+        assertEquals(4L, scheduler.getGranted(BACKGROUND));
+        assertEquals(0L, scheduler.getGranted(INTERACTIVE));
+        assertEquals(0L, scheduler.getGranted(INGEST));
+    }
+
+    @Test
+    public void testMultipart() {
+        when(mockResolver.supportsMultipartUpload()).thenReturn(true);
+        when(mockResolver.uploadSessionExists("upload")).thenReturn(true);
+        when(mockResolver.initiateUpload(partition, identifier, "text/plain")).thenReturn("upload");
+        assertTrue(resolver.supportsMultipartUpload());
+        assertTrue(resolver.uploadSessionExists("upload"));
+        assertEquals("upload", resolver.initiateUpload(partition, identifier, "text/plain"));
+        resolver.abortUpload("upload");
+        verify(mockResolver).abortUpload("upload");
+    }
+
+    private static void deleteChunks(final File directory) throws IOException {
+        try (final Stream<Path> files = Files.walk(new File(directory, "data").toPath())) {
+            files.filter(Files::isRegularFile).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private String uncheckedToString(final InputStream is) {
+        try {
+            return IOUtils.toString(is, UTF_8);
+        } catch (final IOException ex) {
+            return null;
+        }
+    }
+}